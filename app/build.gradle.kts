@@ -15,7 +15,19 @@ android {
         versionCode = 1
         versionName = "1.0"
 
-        testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+        // Runs the plain instrumented tests as well as the androidx microbenchmarks
+        testInstrumentationRunner = "androidx.benchmark.junit4.AndroidBenchmarkRunner"
+        // androidTest always runs against the debuggable build; compare its benchmark numbers
+        // with each other, not with release timings
+        testInstrumentationRunnerArguments["androidx.benchmark.suppressErrors"] = "DEBUGGABLE"
+
+        // Defaults live in gradle.properties; -PsupabaseUrl/-PsupabaseKey point a build elsewhere
+        buildConfigField("String", "SUPABASE_URL", "\"${project.property("supabaseUrl")}\"")
+        buildConfigField("String", "SUPABASE_KEY", "\"${project.property("supabaseKey")}\"")
+    }
+
+    buildFeatures {
+        buildConfig = true
     }
 
     buildTypes {
@@ -26,6 +38,13 @@ android {
                 "proguard-rules.pro"
             )
         }
+        // Release-like build the macrobenchmark module installs and measures
+        create("benchmark") {
+            initWith(getByName("release"))
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+            isDebuggable = false
+        }
     }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_11
@@ -35,6 +54,74 @@ android {
     kotlinOptions {
         jvmTarget = "11"
     }
+    testOptions {
+        // Local unit tests touch classes that log through android.util.Log
+        unitTests.isReturnDefaultValues = true
+        // Robolectric tests start ShareEverythingApp from the merged manifest
+        unitTests.isIncludeAndroidResources = true
+        // BenchmarkRegressionTest is skipped in the normal unit test runs; benchmarkRegression
+        // below runs it, and -PrunBenchmarks=true runs it along with everything else
+        unitTests.all {
+            it.systemProperty("runBenchmarks", project.findProperty("runBenchmarks") ?: "false")
+            // LoadTest is skipped unless -PrunLoadTest=true; -PloadTest.users=50 and the other
+            // loadTest.* properties it documents tune the run
+            it.systemProperty("runLoadTest", project.findProperty("runLoadTest") ?: "false")
+            project.properties.filterKeys { key -> key.startsWith("loadTest.") }.forEach { (key, value) ->
+                it.systemProperty(key, value.toString())
+            }
+        }
+    }
+}
+
+// Runs BenchmarkRegressionTest on the debug unit test classpath; -PrecordBenchmarkBaselines=true
+// rewrites the baselines instead of comparing against them
+fun Test.runBenchmarkRegression() {
+    group = "verification"
+    val unitTests = tasks.named<Test>("testDebugUnitTest").get()
+    testClassesDirs = unitTests.testClassesDirs
+    classpath = unitTests.classpath
+    filter.includeTestsMatching("*BenchmarkRegressionTest")
+    systemProperty("runBenchmarks", "true")
+    if (project.hasProperty("recordBenchmarkBaselines")) {
+        systemProperty("recordBenchmarkBaselines", file("src/test/resources/benchmark-baselines.properties").path)
+    }
+    // Benchmarks are never up to date, and the scores are the output
+    outputs.upToDateWhen { false }
+    testLogging.showStandardStreams = true
+}
+
+// Allocation per operation only, which is the same on every machine; part of check, so CI
+// fails when a hot path starts allocating more
+val benchmarkRegression = tasks.register<Test>("benchmarkRegression") {
+    description = "Fails when a benchmark allocates more per operation than its baseline."
+    runBenchmarkRegression()
+}
+
+// Also compares wall-clock scores, which are only meaningful on the machine that recorded the
+// baselines; not part of check
+tasks.register<Test>("benchmarkTimeRegression") {
+    description = "Fails when a benchmark is slower or allocates more than its baseline."
+    runBenchmarkRegression()
+    systemProperty("checkBenchmarkTimes", "true")
+}
+
+// Runs LargeUploadTest with a heap far smaller than the file it uploads, so an upload path that
+// buffers the whole file fails with OutOfMemoryError. Not part of check, it moves a gigabyte
+val largeUploadTest = tasks.register<Test>("largeUploadTest") {
+    description = "Streams a 1 GB upload into the local stand-in under -Xmx128m."
+    group = "verification"
+    val unitTests = tasks.named<Test>("testDebugUnitTest").get()
+    testClassesDirs = unitTests.testClassesDirs
+    classpath = unitTests.classpath
+    filter.includeTestsMatching("*LargeUploadTest")
+    maxHeapSize = "128m"
+    systemProperty("runLargeUpload", "true")
+    project.findProperty("largeUpload.bytes")?.let { systemProperty("largeUpload.bytes", it.toString()) }
+    outputs.upToDateWhen { false }
+}
+
+tasks.named("check") {
+    dependsOn(benchmarkRegression)
 }
 
 dependencies {
@@ -62,6 +149,8 @@ dependencies {
 
     // AndroidX
     implementation("androidx.lifecycle:lifecycle-viewmodel:2.6.2")
+    implementation("androidx.lifecycle:lifecycle-viewmodel-ktx:2.6.2")
+    implementation("androidx.lifecycle:lifecycle-runtime-ktx:2.6.2")
     implementation("androidx.lifecycle:lifecycle-livedata:2.6.2")
     implementation("androidx.lifecycle:lifecycle-runtime:2.6.2")
 
@@ -76,6 +165,13 @@ dependencies {
     implementation("org.jetbrains.kotlinx:kotlinx-coroutines-android:1.7.3")
     
     testImplementation(libs.junit)
+    testImplementation(libs.jmh.core)
+    testAnnotationProcessor(libs.jmh.generator.annprocess)
+    // RowAllocationBenchmarks measures the old JSONObject path; android.jar only has stubs of it
+    testImplementation(libs.org.json)
+    testImplementation(project(":supabase-standin"))
+    testImplementation(libs.robolectric)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
+    androidTestImplementation(libs.benchmark.junit4)
 }
\ No newline at end of file
@@ -18,4 +18,12 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+# Strip debug and verbose logging, including building the message, from minified builds
+-assumenosideeffects class com.example.share_everything_project.AppLog {
+    public static void v(...);
+    public static void d(...);
+}
+-assumenosideeffects class com.example.share_everything_project.AppLog$Sampler {
+    public void log(...);
+}
@@ -0,0 +1,75 @@
+package com.example.share_everything_project;
+
+import android.content.Context;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Saving and loading the conversation list on a throwaway database, never the user's; the
+ * store is built without the preferences migration, so the saved list is never read or removed.
+ * Run with ./gradlew :app:connectedDebugAndroidTest; results are written to the device's
+ * benchmark JSON output alongside the console summary. Reported only: there is no checked-in
+ * baseline and no gate like BenchmarkRegressionTest's.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConversationStoreBenchmark {
+    private static final String DATABASE = "benchmark_conversations.db";
+    private static final int CONVERSATIONS = 500;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private Context context;
+    private AppDatabase database;
+    private ConversationStore store;
+    private final List<Conversation> conversations = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE);
+        database = new AppDatabase(context, DATABASE);
+        store = new ConversationStore(context, database, null);
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            conversations.add(i % 3 == 0
+                ? Conversation.contact("Contact " + i, "+1555000" + i)
+                : Conversation.appUser("user" + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+        context.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void saveConversationList() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            database.getWritableDatabase().delete("conversations", null, null);
+            state.resumeTiming();
+
+            store.addAllBlocking(conversations);
+        }
+    }
+
+    @Test
+    public void loadConversationList() {
+        store.addAllBlocking(conversations);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            store.loadAll();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.share_everything_project;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Cost of building the "Show My QR Code" bitmap, which MainActivity does on the main thread.
+ * Reported only: it needs a device, so there is no checked-in baseline and no gate like
+ * BenchmarkRegressionTest's.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QRCodeBenchmark {
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void generateQRCode() {
+        // Same shape as the JSON MainActivity.showMyQRCode encodes
+        String content = "{\"type\":\"contact_add\",\"username\":\"benchmark_user\"}";
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            QRUtils.generateQRCode(content).recycle();
+        }
+    }
+}
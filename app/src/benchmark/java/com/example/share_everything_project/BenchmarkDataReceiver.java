@@ -0,0 +1,110 @@
+package com.example.share_everything_project;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Benchmark build only. Fills the local cache and replays realtime pushes so the macrobenchmarks
+ * measure the UI against a known amount of data instead of whatever the server holds:
+ *   adb shell am broadcast -n com.example.share_everything_project/.BenchmarkDataReceiver \
+ *     -a com.example.share_everything_project.SEED_MESSAGES --es user a --es peer b --ei count 10000
+ */
+public class BenchmarkDataReceiver extends BroadcastReceiver {
+    // Cached history between user and peer, with fixed ids so seeding again replaces the same rows
+    static final String ACTION_SEED_MESSAGES = "com.example.share_everything_project.SEED_MESSAGES";
+    // count messages from peer to user delivered back to back through the realtime listeners;
+    // tag goes into their text so each burst can be told apart on screen
+    static final String ACTION_PUSH_MESSAGES = "com.example.share_everything_project.PUSH_MESSAGES";
+    // count conversations for user, each with one cached message so it has a preview; no peer
+    static final String ACTION_SEED_CONVERSATIONS = "com.example.share_everything_project.SEED_CONVERSATIONS";
+
+    private static final long SEED_ID_BASE = 1_000_000_000L;
+    // Above any seeded history, so the two kinds of seeded rows never replace each other
+    private static final long SEED_CONVERSATION_ID_BASE = 2_000_000_000L;
+    static final String SEED_PEER_PREFIX = "benchmark_list_peer_";
+    private static final int SEED_BATCH = 500;
+
+    private static final Executor executor = Executors.newSingleThreadExecutor();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String user = intent.getStringExtra("user");
+        String peer = intent.getStringExtra("peer");
+        int count = intent.getIntExtra("count", 0);
+        boolean needsPeer = !ACTION_SEED_CONVERSATIONS.equals(intent.getAction());
+        if (user == null || (needsPeer && peer == null) || count <= 0) return;
+
+        PendingResult result = goAsync();
+        Context appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            try {
+                if (ACTION_SEED_MESSAGES.equals(intent.getAction())) {
+                    seedMessages(appContext, user, peer, count);
+                } else if (ACTION_PUSH_MESSAGES.equals(intent.getAction())) {
+                    pushMessages(user, peer, count, intent.getStringExtra("tag"));
+                } else if (ACTION_SEED_CONVERSATIONS.equals(intent.getAction())) {
+                    seedConversations(appContext, user, count);
+                }
+            } finally {
+                result.finish();
+            }
+        });
+    }
+
+    private static void seedMessages(Context context, String user, String peer, int count) {
+        MessageStore store = MessageStore.getInstance(context);
+        // Oldest first, one second apart, ending just before now
+        long start = System.currentTimeMillis() - count * 1000L;
+        List<Message> batch = new ArrayList<>(SEED_BATCH);
+        for (int i = 0; i < count; i++) {
+            // Alternate senders so both bubble layouts are in the list
+            boolean incoming = i % 2 == 0;
+            batch.add(new Message(String.valueOf(SEED_ID_BASE + i), incoming ? peer : user, incoming ? user : peer,
+                "Seeded message " + i, "text", start + i * 1000L, null));
+            if (batch.size() == SEED_BATCH) {
+                store.saveMessages(batch);
+                batch.clear();
+            }
+        }
+        store.saveMessages(batch);
+    }
+
+    private static void seedConversations(Context context, String user, int count) {
+        List<Conversation> conversations = new ArrayList<>(count);
+        List<Message> previews = new ArrayList<>(SEED_BATCH);
+        MessageStore store = MessageStore.getInstance(context);
+        long start = System.currentTimeMillis() - count * 1000L;
+        for (int i = 0; i < count; i++) {
+            String peer = SEED_PEER_PREFIX + i;
+            conversations.add(Conversation.appUser(peer));
+            // Every other preview is unread, so rows with and without the badge are both drawn
+            boolean incoming = i % 2 == 0;
+            previews.add(new Message(String.valueOf(SEED_CONVERSATION_ID_BASE + i), incoming ? peer : user,
+                incoming ? user : peer, "Seeded preview " + i, "text", start + i * 1000L, null));
+            if (previews.size() == SEED_BATCH) {
+                store.saveMessages(previews);
+                previews.clear();
+            }
+        }
+        store.saveMessages(previews);
+        // Names already stored are kept, so seeding again adds nothing
+        ConversationStore.getInstance(context).addAllBlocking(conversations);
+    }
+
+    private static void pushMessages(String user, String peer, int count, String tag) {
+        RealtimeMultiplexer realtime = ShareEverythingApp.getInstance().getRealtime(user);
+        // Server ids above the seeded range, unique per burst so MessageList does not drop them
+        long idBase = System.currentTimeMillis() * 1000;
+        String label = tag != null ? "Burst " + tag : "Burst";
+        for (int i = 0; i < count; i++) {
+            BenchmarkRealtime.replay(realtime, new Message(String.valueOf(idBase + i), peer, user,
+                label + " message " + i, "text", System.currentTimeMillis(), null));
+        }
+    }
+}
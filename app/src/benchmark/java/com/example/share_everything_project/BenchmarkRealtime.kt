@@ -0,0 +1,10 @@
+package com.example.share_everything_project
+
+/**
+ * Benchmark build only. Lets BenchmarkDataReceiver replay realtime pushes: the multiplexer's
+ * replay hook is internal to the app module, which Kotlin here can call and Java cannot name.
+ */
+object BenchmarkRealtime {
+    @JvmStatic
+    fun replay(realtime: RealtimeMultiplexer, message: Message) = realtime.replay(message)
+}
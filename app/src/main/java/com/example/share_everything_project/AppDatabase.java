@@ -0,0 +1,123 @@
+package com.example.share_everything_project;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+public class AppDatabase extends SQLiteOpenHelper {
+    private static final String TAG = "AppDatabase";
+    private static final String DATABASE_NAME = "share_everything.db";
+    private static final int DATABASE_VERSION = 8;
+
+    private static AppDatabase instance;
+
+    public static synchronized AppDatabase getInstance(Context context) {
+        if (instance == null) {
+            instance = new AppDatabase(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private AppDatabase(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    // Separate database file, so benchmarks never touch the user's data
+    AppDatabase(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        AppLog.d(TAG, "Creating local database");
+        // Cached messages, one row per server message id
+        db.execSQL("CREATE TABLE messages ("
+            + "id TEXT PRIMARY KEY, "
+            + "conversation TEXT NOT NULL, "
+            + "sender TEXT NOT NULL, "
+            + "receiver TEXT NOT NULL, "
+            + "content TEXT NOT NULL, "
+            + "type TEXT NOT NULL, "
+            + "timestamp INTEGER NOT NULL, "
+            + "created_at TEXT)");
+        db.execSQL("CREATE INDEX idx_messages_conversation_timestamp "
+            + "ON messages (conversation, timestamp)");
+        onUpgrade(db, 1, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Schema changes are applied incrementally, one version at a time
+        if (oldVersion < 2) {
+            AppLog.d(TAG, "Upgrading local database to version 2");
+            db.execSQL("ALTER TABLE messages ADD COLUMN client_id TEXT");
+            // Outgoing messages waiting to be written, in send order
+            db.execSQL("CREATE TABLE outbox ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "client_id TEXT NOT NULL UNIQUE, "
+                + "sender TEXT NOT NULL, "
+                + "receiver TEXT NOT NULL, "
+                + "content TEXT NOT NULL, "
+                + "type TEXT NOT NULL, "
+                + "timestamp INTEGER NOT NULL, "
+                + "created_at TEXT, "
+                + "state TEXT NOT NULL, "
+                + "attempts INTEGER NOT NULL DEFAULT 0)");
+        }
+        if (oldVersion < 3) {
+            AppLog.d(TAG, "Upgrading local database to version 3");
+            // Local copy of how far each conversation has been read
+            db.execSQL("CREATE TABLE conversation_reads ("
+                + "username TEXT NOT NULL, "
+                + "peer TEXT NOT NULL, "
+                + "last_read_timestamp INTEGER NOT NULL, "
+                + "PRIMARY KEY (username, peer))");
+        }
+        if (oldVersion < 4) {
+            AppLog.d(TAG, "Upgrading local database to version 4");
+            // Conversation list entries in the order they were added; null phone_number for app users
+            db.execSQL("CREATE TABLE conversations ("
+                + "seq INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "name TEXT NOT NULL UNIQUE, "
+                + "phone_number TEXT)");
+        }
+        if (oldVersion < 5) {
+            AppLog.d(TAG, "Upgrading local database to version 5");
+            db.execSQL("ALTER TABLE messages ADD COLUMN thumbnail_url TEXT");
+            db.execSQL("ALTER TABLE outbox ADD COLUMN thumbnail_url TEXT");
+        }
+        if (oldVersion < 6) {
+            AppLog.d(TAG, "Upgrading local database to version 6");
+            // Phone contacts are matched by their provider id on re-sync, so renames and new
+            // numbers update the row; null for app users and contacts saved before this version
+            db.execSQL("ALTER TABLE conversations ADD COLUMN contact_id INTEGER");
+            db.execSQL("CREATE UNIQUE INDEX idx_conversations_contact_id ON conversations (contact_id)");
+        }
+        if (oldVersion < 7) {
+            AppLog.d(TAG, "Upgrading local database to version 7");
+            // Stretches of history the cache skipped when catching up after a long time away;
+            // the server has messages strictly between the older and newer (timestamp, id) edges
+            db.execSQL("CREATE TABLE history_gaps ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "conversation TEXT NOT NULL, "
+                + "older_timestamp INTEGER NOT NULL, "
+                + "older_id INTEGER NOT NULL, "
+                + "newer_timestamp INTEGER NOT NULL, "
+                + "newer_id INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX idx_history_gaps_conversation ON history_gaps (conversation)");
+        }
+        if (oldVersion < 8) {
+            AppLog.d(TAG, "Upgrading local database to version 8");
+            // Newest (timestamp, id) up to which the cache holds every server message of the
+            // conversation; realtime rows are cached past it, only fetches move it
+            db.execSQL("CREATE TABLE sync_cursors ("
+                + "conversation TEXT PRIMARY KEY, "
+                + "timestamp INTEGER NOT NULL, "
+                + "message_id INTEGER NOT NULL)");
+            // Until now the newest cached row was the cursor; SQLite takes the bare id column
+            // from the row holding MAX(timestamp)
+            db.execSQL("INSERT INTO sync_cursors (conversation, timestamp, message_id) "
+                + "SELECT conversation, MAX(timestamp), CAST(id AS INTEGER) FROM messages GROUP BY conversation");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.share_everything_project;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.util.Log;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * App-wide logging facade. A call below the current level costs one int comparison; the
+ * supplier overloads only build their message when it will actually be written, and a
+ * Sampler keeps per-row hot paths to one line in N. Messages must never include message
+ * content, only ids and counts.
+ *
+ * The level defaults to DEBUG in debuggable builds and INFO otherwise. It can be changed on
+ * a device, then picked up on the next app start, with:
+ *   adb shell setprop log.tag.ShareHub VERBOSE   (or DEBUG, INFO, WARN, ERROR, SUPPRESS)
+ * Release builds with minification also strip v/d calls entirely, see proguard-rules.pro.
+ */
+public final class AppLog {
+    // Tag whose log.tag.* system property sets the level
+    static final String LEVEL_TAG = "ShareHub";
+    static final int SUPPRESS = Integer.MAX_VALUE;
+
+    public interface MessageSupplier {
+        String get();
+    }
+
+    private static volatile int minLevel = Log.INFO;
+
+    private AppLog() {
+    }
+
+    // Called once from ShareEverythingApp.onCreate
+    public static void init(Context context) {
+        boolean debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        int level = debuggable ? Log.DEBUG : Log.INFO;
+        // Log.isLoggable reads a system property, so it is only checked once per start
+        if (Log.isLoggable(LEVEL_TAG, Log.VERBOSE)) {
+            level = Log.VERBOSE;
+        } else if (Log.isLoggable(LEVEL_TAG, Log.DEBUG)) {
+            level = Log.DEBUG;
+        } else if (!Log.isLoggable(LEVEL_TAG, Log.INFO)) {
+            // Property raised above INFO
+            level = SUPPRESS;
+            for (int candidate = Log.WARN; candidate <= Log.ASSERT; candidate++) {
+                if (Log.isLoggable(LEVEL_TAG, candidate)) {
+                    level = candidate;
+                    break;
+                }
+            }
+        }
+        setMinLevel(level);
+    }
+
+    public static void setMinLevel(int level) {
+        minLevel = level;
+    }
+
+    public static boolean isLoggable(int level) {
+        return level >= minLevel;
+    }
+
+    public static void v(String tag, MessageSupplier message) {
+        if (isLoggable(Log.VERBOSE)) Log.v(tag, message.get());
+    }
+
+    public static void d(String tag, String message) {
+        if (isLoggable(Log.DEBUG)) Log.d(tag, message);
+    }
+
+    public static void d(String tag, MessageSupplier message) {
+        if (isLoggable(Log.DEBUG)) Log.d(tag, message.get());
+    }
+
+    public static void i(String tag, String message) {
+        if (isLoggable(Log.INFO)) Log.i(tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        if (isLoggable(Log.WARN)) Log.w(tag, message);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        if (isLoggable(Log.WARN)) Log.w(tag, message, error);
+    }
+
+    public static void e(String tag, String message) {
+        if (isLoggable(Log.ERROR)) Log.e(tag, message);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        if (isLoggable(Log.ERROR)) Log.e(tag, message, error);
+    }
+
+    public static Sampler sampler(String tag, int everyN) {
+        return new Sampler(tag, everyN);
+    }
+
+    /**
+     * Per-item logging for hot paths: every call is written at VERBOSE, one in everyN at DEBUG,
+     * nothing above that. Keep one instance per call site.
+     */
+    public static final class Sampler {
+        private final String tag;
+        private final int everyN;
+        private final AtomicLong calls = new AtomicLong();
+
+        private Sampler(String tag, int everyN) {
+            if (everyN < 1) throw new IllegalArgumentException("everyN must be at least 1");
+            this.tag = tag;
+            this.everyN = everyN;
+        }
+
+        public void log(MessageSupplier message) {
+            if (isLoggable(Log.VERBOSE)) {
+                Log.v(tag, message.get());
+            } else if (isLoggable(Log.DEBUG)) {
+                long count = calls.incrementAndGet();
+                if (count % everyN == 1 || everyN == 1) {
+                    Log.d(tag, message.get() + " (sampled 1/" + everyN + ", " + count + " so far)");
+                }
+            }
+        }
+    }
+}
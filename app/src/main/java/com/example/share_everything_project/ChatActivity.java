@@ -1,41 +1,49 @@
 package com.example.share_everything_project;
 
-import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
-import android.util.Log;
 import android.view.View;
 import android.widget.*;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.content.ContextCompat;
+import androidx.core.content.FileProvider;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
-import java.io.InputStream;
+import java.io.File;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import org.json.JSONObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class ChatActivity extends AppCompatActivity {
+    // How close to either end of the list the next page starts loading
+    private static final int PAGE_PREFETCH_DISTANCE = 5;
+
     private EditText messageEditText;
     private ImageButton sendButton;
     private ImageButton fileButton;
     private ImageButton shareButton;
     private ImageButton backButton;
+    private ProgressBar uploadProgressBar;
+    // Upload id -> {bytes uploaded, total bytes} for this conversation
+    private final Map<Long, long[]> uploadProgress = new HashMap<>();
     private TextView chatTitleText;
     private RecyclerView messagesRecyclerView;
     private MessageAdapter adapter;
-    private ArrayList<Message> messageList;
     private ChatViewModel viewModel;
+    private boolean submitPending;
     private String username;
     private String otherUser;
     private String phoneNumber;
@@ -49,18 +57,21 @@ public class ChatActivity extends AppCompatActivity {
                 String messageText = messageEditText.getText().toString().trim();
                 boolean hasMessage = !messageText.isEmpty();
                 
+                List<Uri> fileUris = new ArrayList<>();
                 if (result.getData().getClipData() != null) {
                     // Multiple files selected
                     for (int i = 0; i < result.getData().getClipData().getItemCount(); i++) {
-                        Uri fileUri = result.getData().getClipData().getItemAt(i).getUri();
-                        uploadFileToSupabase(fileUri, hasMessage ? messageText : null);
+                        fileUris.add(result.getData().getClipData().getItemAt(i).getUri());
                     }
                 } else {
                     Uri fileUri = result.getData().getData();
                     if (fileUri != null) {
-                        uploadFileToSupabase(fileUri, hasMessage ? messageText : null);
+                        fileUris.add(fileUri);
                     }
                 }
+                if (!fileUris.isEmpty()) {
+                    uploadFilesToSupabase(fileUris, hasMessage ? messageText : null);
+                }
                 
                 // Clear message text if it was sent with files
                 if (hasMessage) {
@@ -100,18 +111,33 @@ public class ChatActivity extends AppCompatActivity {
         chatTitleText.setText(otherUser);
         
         // Initialize RecyclerView
-        messageList = new ArrayList<>();
         adapter = new MessageAdapter(this, username);
-        adapter.setMessages(messageList);
-        messagesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        messagesRecyclerView.setLayoutManager(layoutManager);
         messagesRecyclerView.setAdapter(adapter);
 
+        // Page history in from the store/server as the user reaches either end of the list
+        messagesRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (viewModel == null) return;
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PAGE_PREFETCH_DISTANCE) {
+                    viewModel.loadOlderMessages();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= adapter.getItemCount() - 1 - PAGE_PREFETCH_DISTANCE) {
+                    viewModel.loadNewerMessages();
+                }
+            }
+        });
+
         // Set up file click listener
         adapter.setOnFileClickListener(message -> {
             if (message.getContent() != null && message.getContent().startsWith("http")) {
-                shareContent(message.getContent());
+                shareFile(message.getContent());
             }
         });
+        adapter.setOnRetryClickListener(message ->
+            ShareEverythingApp.getInstance().getMessageOutbox().retry(message));
 
         // Set up click listeners
         setupClickListeners();
@@ -119,24 +145,58 @@ public class ChatActivity extends AppCompatActivity {
         // Initialize ViewModel
         try {
             viewModel = new ViewModelProvider(this).get(ChatViewModel.class);
-            viewModel.loadMessages(username, otherUser);
 
-            viewModel.getMessages().observe(this, messages -> {
-                if (messages != null && adapter != null) {
-                    messageList.clear();
-                    messageList.addAll(messages);
-                    adapter.notifyDataSetChanged();
-                    messagesRecyclerView.scrollToPosition(messageList.size() - 1);
+            // Any change schedules one snapshot per frame; the adapter diffs it off the main thread
+            viewModel.getMessageList().setListener(new MessageList.Listener() {
+                @Override
+                public void onInserted(int position, int count) {
+                    scheduleSubmit();
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    scheduleSubmit();
+                }
+
+                @Override
+                public void onChanged(int position) {
+                    scheduleSubmit();
                 }
             });
+            submitMessages();
+            viewModel.loadMessages(username, otherUser);
         } catch (Exception e) {
-            Log.e("ChatActivity", "Failed to initialize ViewModel", e);
+            AppLog.e("ChatActivity", "Failed to initialize ViewModel", e);
             Toast.makeText(this, "Error: Failed to load messages", Toast.LENGTH_SHORT).show();
             finish();
             return;
         }
     }
 
+    private void scheduleSubmit() {
+        if (submitPending) return;
+        submitPending = true;
+        messagesRecyclerView.postOnAnimation(this::submitMessages);
+    }
+
+    private void submitMessages() {
+        submitPending = false;
+        LinearLayoutManager layoutManager = (LinearLayoutManager) messagesRecyclerView.getLayoutManager();
+        int previousCount = adapter.getItemCount();
+        boolean wasAtBottom = previousCount == 0
+            || layoutManager.findLastVisibleItemPosition() >= previousCount - 1;
+        Message previousLast = previousCount == 0 ? null : adapter.getCurrentList().get(previousCount - 1);
+
+        List<Message> snapshot = viewModel.getMessageList().snapshot();
+        adapter.submitList(snapshot, () -> {
+            // Follow new messages at the bottom, but leave the user alone while reading history
+            Message last = snapshot.isEmpty() ? null : snapshot.get(snapshot.size() - 1);
+            if (wasAtBottom && last != null && last != previousLast) {
+                messagesRecyclerView.scrollToPosition(snapshot.size() - 1);
+            }
+        });
+    }
+
     private void initializeViews() {
         // Toolbar and navigation components
         Toolbar toolbar = findViewById(R.id.chatToolbar);
@@ -151,6 +211,7 @@ public class ChatActivity extends AppCompatActivity {
         
         // RecyclerView for messages
         messagesRecyclerView = findViewById(R.id.messagesRecyclerView);
+        uploadProgressBar = findViewById(R.id.uploadProgressBar);
     }
 
     private void setupClickListeners() {
@@ -178,10 +239,50 @@ public class ChatActivity extends AppCompatActivity {
             }
         });
 
+        // Tap the upload progress bar to cancel this conversation's uploads
+        uploadProgressBar.setOnClickListener(v -> new AlertDialog.Builder(this)
+            .setTitle("Cancel uploads")
+            .setMessage("Stop uploading the remaining files?")
+            .setPositiveButton("Stop", (dialog, which) -> ShareEverythingApp.getInstance()
+                .getUploadScheduler().cancelConversation(username, otherUser))
+            .setNegativeButton("Continue", (dialog, which) -> dialog.dismiss())
+            .show());
+
         // Set up back button
         backButton.setOnClickListener(v -> onBackPressed());
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Uploads run in the application; re-attach to show their progress
+        ShareEverythingApp.getInstance().getUploadScheduler().addListener(uploadListener);
+        updateUploadProgress();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Before the conversation list resumes, which happens before our onStop
+        if (viewModel != null) {
+            viewModel.markConversationRead();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        ShareEverythingApp.getInstance().getUploadScheduler().removeListener(uploadListener);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (viewModel != null) {
+            viewModel.getMessageList().setListener(null);
+        }
+    }
+
     @Override
     public void onBackPressed() {
         super.onBackPressed();
@@ -200,164 +301,131 @@ public class ChatActivity extends AppCompatActivity {
             intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
             filePickerLauncher.launch(Intent.createChooser(intent, "Select Files"));
         } catch (Exception e) {
-            Log.e("ChatActivity", "Error opening file picker", e);
+            AppLog.e("ChatActivity", "Error opening file picker", e);
             Toast.makeText(this, "Error opening file picker", Toast.LENGTH_SHORT).show();
         }
     }
 
     private void sendInAppMessage(String message) {
+        // Format timestamp in ISO 8601 with timezone for timestamptz
+        String createdAt = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            createdAt = ZonedDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        }
+
         // Create a new message
-        Message newMessage = new Message(username, otherUser, message, "text", System.currentTimeMillis());
-        
-        // Add message to the list
-        messageList.add(newMessage);
-        adapter.notifyDataSetChanged();
-        messagesRecyclerView.scrollToPosition(messageList.size() - 1);
+        Message newMessage = new Message(
+            null, username, otherUser, message, "text", System.currentTimeMillis(), createdAt);
         
-        // Store message in Supabase
-        new Thread(() -> {
-            try {
-                var client = SupabaseClientProvider.INSTANCE.getClient();
-                
-                // Create message JSON matching database schema
-                JSONObject messageJson = new JSONObject();
-                messageJson.put("sender", username);
-                messageJson.put("receiver", otherUser);
-                messageJson.put("content", message);
-                messageJson.put("type", "text");
-                messageJson.put("timestamp", System.currentTimeMillis());
-                
-                // Format timestamp in ISO 8601 with timezone for timestamptz
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                    ZonedDateTime now = ZonedDateTime.now();
-                    messageJson.put("created_at", now.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
-                }
-                
-                // Insert message into Supabase using Kotlin wrapper
-                SupabaseWrapper.insertMessage(client, messageJson);
-                
-                // Show success message
-                runOnUiThread(() -> {
-                    Toast.makeText(this, "Message sent to " + otherUser, Toast.LENGTH_SHORT).show();
-                });
-            } catch (Exception e) {
-                Log.e("ChatActivity", "Error sending message", e);
-                runOnUiThread(() -> 
-                    Toast.makeText(this, "Failed to send message: " + e.getMessage(), Toast.LENGTH_SHORT).show()
-                );
-            }
-        }).start();
+        // Queue it durably, then show the pending copy straight away;
+        // its send state and the realtime echo replace it in place
+        Message pending = ShareEverythingApp.getInstance().getMessageOutbox().send(newMessage);
+        viewModel.addLocalMessage(pending);
     }
 
-    private void uploadFileToSupabase(Uri fileUri, String messageText) {
-        new Thread(() -> {
-            try {
-                var client = SupabaseClientProvider.INSTANCE.getClient();
-                
-                // Generate a unique filename
-                String fileName = "file_" + System.currentTimeMillis() + "_" + getFileName(fileUri);
-                
-                // Convert Uri to ByteArray
-                byte[] fileBytes;
-                try (InputStream inputStream = getContentResolver().openInputStream(fileUri)) {
-                    if (inputStream == null) throw new Exception("Could not open file input stream");
-                    fileBytes = new byte[inputStream.available()];
-                    inputStream.read(fileBytes);
-                }
-                
-                // Upload file to Supabase storage using Kotlin wrapper
-                SupabaseWrapper.uploadFile(client, "chat-files", fileName, fileBytes);
-                
-                // Get the public URL for the uploaded file
-                String fileUrl = SupabaseWrapper.getPublicUrl(client, "chat-files", fileName);
-                
-                // Store last uploaded file URL for sharing
-                lastContent = fileUrl;
-                
-                // If there's a message, send it first
-                if (messageText != null && !messageText.isEmpty()) {
-                    JSONObject textMessageJson = new JSONObject();
-                    textMessageJson.put("sender", username);
-                    textMessageJson.put("receiver", otherUser);
-                    textMessageJson.put("content", messageText);
-                    textMessageJson.put("type", "text");
-                    textMessageJson.put("timestamp", System.currentTimeMillis());
-                    SupabaseWrapper.insertMessage(client, textMessageJson);
-                }
-                
-                // Send the file message
-                JSONObject fileMessageJson = new JSONObject();
-                fileMessageJson.put("sender", username);
-                fileMessageJson.put("receiver", otherUser);
-                fileMessageJson.put("content", fileUrl);
-                fileMessageJson.put("type", "file");
-                fileMessageJson.put("timestamp", System.currentTimeMillis());
-                SupabaseWrapper.insertMessage(client, fileMessageJson);
-                
-                runOnUiThread(() -> {
-                    Log.d("ChatActivity", "File uploaded and message sent to Supabase");
-                    Toast.makeText(this, "File sent successfully", Toast.LENGTH_SHORT).show();
-                });
-            } catch (Exception e) {
-                runOnUiThread(() -> 
-                    Toast.makeText(this, "Failed to upload file: " + e.getMessage(), Toast.LENGTH_SHORT).show()
-                );
-            }
-        }).start();
+    private void uploadFilesToSupabase(List<Uri> fileUris, String messageText) {
+        ShareEverythingApp.getInstance().getUploadScheduler()
+            .enqueue(username, otherUser, fileUris, messageText);
+        uploadProgress.clear();
+        uploadProgressBar.setProgress(0);
+        uploadProgressBar.setVisibility(View.VISIBLE);
     }
 
-    @SuppressLint("Range")
-    private String getFileName(Uri uri) {
-        String result = null;
-        if (uri.getScheme().equals("content")) {
-            try (Cursor cursor = getContentResolver().query(uri, null, null, null, null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    result = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
-                }
-            }
+    private final UploadScheduler.Listener uploadListener = new UploadScheduler.Listener() {
+        @Override
+        public void onProgress(UploadScheduler.Upload upload, long bytesUploaded, long totalBytes) {
+            if (!isThisConversation(upload)) return;
+            uploadProgress.put(upload.getId(), new long[]{bytesUploaded, totalBytes});
+            updateUploadProgress();
         }
-        if (result == null) {
-            result = uri.getPath();
-            int cut = result != null ? result.lastIndexOf('/') : -1;
-            if (cut != -1) {
-                result = result.substring(cut + 1);
-            }
+
+        @Override
+        public void onFinished(UploadScheduler.Upload upload, String fileUrl) {
+            if (!isThisConversation(upload)) return;
+            // Store last uploaded file URL for sharing
+            lastContent = fileUrl;
+            AppLog.d("ChatActivity", "File uploaded and message sent to Supabase");
+            Toast.makeText(ChatActivity.this, "File sent successfully", Toast.LENGTH_SHORT).show();
+            updateUploadProgress();
+        }
+
+        @Override
+        public void onFailed(UploadScheduler.Upload upload, Exception error) {
+            if (!isThisConversation(upload)) return;
+            Toast.makeText(ChatActivity.this, "Failed to upload file: " + error.getMessage(), Toast.LENGTH_SHORT).show();
+            updateUploadProgress();
+        }
+    };
+
+    private boolean isThisConversation(UploadScheduler.Upload upload) {
+        return upload.getSender().equals(username) && upload.getReceiver().equals(otherUser);
+    }
+
+    // Combined progress of this conversation's uploads; hidden once none are left
+    private void updateUploadProgress() {
+        if (!ShareEverythingApp.getInstance().getUploadScheduler().hasPendingUploads(username, otherUser)) {
+            uploadProgress.clear();
+            uploadProgressBar.setVisibility(View.GONE);
+            return;
+        }
+        long uploaded = 0;
+        long total = 0;
+        for (long[] progress : uploadProgress.values()) {
+            uploaded += progress[0];
+            total += progress[1];
         }
-        return result != null ? result : "unknown_file";
+        uploadProgressBar.setVisibility(View.VISIBLE);
+        uploadProgressBar.setProgress(total > 0 ? (int) (uploaded * 100 / total) : 0);
     }
 
     private void shareContent(String content) {
-        Intent shareIntent = new Intent(Intent.ACTION_SEND);
-        
         // Check if it's a file URL or just text
         if (content.startsWith("http") && (
                 content.endsWith(".jpg") || content.endsWith(".jpeg") || 
                 content.endsWith(".png") || content.endsWith(".pdf") || 
                 content.endsWith(".mp3") || content.endsWith(".mp4"))) {
-            // It's a file URL
-            shareIntent.setType("text/plain");
-            shareIntent.putExtra(Intent.EXTRA_TEXT, content);
-            
-            // Try to also share as URI if possible
-            try {
-                Uri contentUri = Uri.parse(content);
-                shareIntent.setAction(Intent.ACTION_SEND);
-                shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
-                shareIntent.setType("*/*");
-                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            } catch (Exception e) {
-                Log.e("ChatActivity", "Error parsing URI for sharing: " + e.getMessage());
-            }
-        } else {
-            // It's just text
-            shareIntent.setType("text/plain");
-            shareIntent.putExtra(Intent.EXTRA_TEXT, content);
+            // It's a file URL, share the cached file itself
+            shareFile(content);
+            return;
         }
-        
+
+        // It's just text
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType("text/plain");
+        shareIntent.putExtra(Intent.EXTRA_TEXT, content);
+
         // Start the share activity with chooser
         startActivity(Intent.createChooser(shareIntent, "Share via"));
     }
     
+    // Shares the local copy from the download cache, downloading it first on the first open
+    private void shareFile(String fileUrl) {
+        CompletableFuture<File> download = ShareEverythingApp.getInstance().getDownloadCache().get(fileUrl);
+        if (!download.isDone()) {
+            Toast.makeText(this, "Downloading file...", Toast.LENGTH_SHORT).show();
+        }
+        download.whenCompleteAsync((file, error) -> {
+            if (isFinishing() || isDestroyed()) return;
+
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            if (error != null) {
+                // Still let the user pass the link on
+                AppLog.e("ChatActivity", "Error downloading " + fileUrl, error);
+                shareIntent.setType("text/plain");
+                shareIntent.putExtra(Intent.EXTRA_TEXT, fileUrl);
+            } else {
+                Uri contentUri = FileProvider.getUriForFile(this,
+                        getApplicationContext().getPackageName() + ".provider",
+                        file);
+                String mimeType = getContentResolver().getType(contentUri);
+                shareIntent.setType(mimeType != null ? mimeType : "*/*");
+                shareIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
+                shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
+            startActivity(Intent.createChooser(shareIntent, "Share via"));
+        }, ContextCompat.getMainExecutor(this));
+    }
+
     private void showShareFileDialog(String fileUrl) {
         new AlertDialog.Builder(this)
             .setTitle("File Uploaded")
@@ -1,173 +1,530 @@
 package com.example.share_everything_project;
 
-import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
+import androidx.lifecycle.ViewModelKt;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
 import android.util.Log;
-import org.json.JSONObject;
-import org.json.JSONArray;
+import io.github.jan.supabase.SupabaseClient;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.ExecutorsKt;
 
 public class ChatViewModel extends ViewModel {
-    private final MutableLiveData<List<Message>> messages = new MutableLiveData<>();
-    private io.github.jan.supabase.realtime.RealtimeChannel subscription;
+    static final int PAGE_SIZE = 50;
+    // Upper bound on how many messages are kept in memory at once
+    static final int MAX_WINDOW_SIZE = 300;
+    // Local database work runs on the coroutine IO pool instead of a new thread per load
+    private static final Executor IO = ExecutorsKt.asExecutor(Dispatchers.getIO());
+    // Trace section covering a conversation load, measured by the macrobenchmark
+    private static final String LOAD_TRACE_SECTION = "ChatLoad";
+    private static final AtomicInteger loadTraceCookie = new AtomicInteger();
+    // Per-row logging; every row at VERBOSE, sampled at DEBUG
+    private static final AppLog.Sampler ROW_LOG = AppLog.sampler("ChatViewModel", 100);
+    private static final AppLog.Sampler REALTIME_LOG = AppLog.sampler("ChatViewModel", 20);
 
-    public LiveData<List<Message>> getMessages() {
-        return messages;
+    // Handles for this conversation's realtime and reconnect listeners; guarded by this, removed
+    // on switch and in onCleared
+    private RealtimeMultiplexer.Registration realtimeRegistration;
+    private RealtimeMultiplexer.Registration reconnectRegistration;
+    private final MessageOutbox.Listener outboxListener = this::onOutboxStateChanged;
+
+    // Messages currently held in memory, oldest first; only touched on the main thread
+    private final MessageList messageList = new MessageList();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean pageLoading = new AtomicBoolean(false);
+    private volatile boolean hasOlderPages = true;
+    // Set once newer messages were trimmed from the window and must be paged back in from the store
+    private volatile boolean hasNewerPages = false;
+    private String user1;
+    private String user2;
+    // Scope of the current conversation's loads; replaced when switching conversations
+    private CoroutineScope loadScope;
+
+    // Result of a delta fetch; skippedHistory means messages does not connect to what was
+    // cached before it, and the part in between is recorded as a gap in the store
+    private static final class Delta {
+        final List<Message> messages;
+        final boolean skippedHistory;
+
+        Delta(List<Message> messages, boolean skippedHistory) {
+            this.messages = messages;
+            this.skippedHistory = skippedHistory;
+        }
+    }
+
+    // A page read from the store, cut off at the gap it ran into, if any
+    private static final class CachedPage {
+        final List<Message> messages;
+        final MessageStore.HistoryGap gap;
+
+        CachedPage(List<Message> messages, MessageStore.HistoryGap gap) {
+            this.messages = messages;
+            this.gap = gap;
+        }
+    }
+
+    // Observe changes through MessageList.setListener; read it from the main thread only
+    public MessageList getMessageList() {
+        return messageList;
     }
 
     public void loadMessages(String user1, String user2) {
-        new Thread(() -> {
-            try {
-                var client = SupabaseClientProvider.INSTANCE.getClient();
-                
-                // Fetch messages using the Kotlin wrapper
-                JSONArray response = SupabaseWrapper.fetchMessages(client, user1, user2);
-                Log.d("ChatViewModel", "Received messages from Supabase: " + response.toString());
-                
-                // Parse the response and convert to Message objects
-                List<Message> messageList = new ArrayList<>();
-                for (int i = 0; i < response.length(); i++) {
-                    try {
-                        JSONObject messageJson = response.getJSONObject(i);
-                        Log.d("ChatViewModel", "Processing message: " + messageJson.toString());
-                        
-                        // Create Message object with all fields
-                        Message msg = new Message(
-                            messageJson.optString("id"),
-                            messageJson.getString("sender"),
-                            messageJson.getString("receiver"),
-                            messageJson.getString("content"),
-                            messageJson.getString("type"),
-                            messageJson.getLong("timestamp"),
-                            messageJson.optString("created_at")
-                        );
-                        
-                        // Log message details for debugging
-                        Log.d("ChatViewModel", String.format(
-                            "Message details - Sender: %s, Receiver: %s, Content: %s",
-                            msg.getSender(),
-                            msg.getReceiver(),
-                            msg.getContent()
-                        ));
-                        
-                        messageList.add(msg);
-                    } catch (Exception e) {
-                        Log.e("ChatViewModel", "Error parsing message: " + e.getMessage(), e);
-                    }
-                }
-                
-                Log.d("ChatViewModel", "Total messages parsed: " + messageList.size());
-                
-                // Sort messages by timestamp to ensure correct order
-                Collections.sort(messageList, (m1, m2) -> 
-                    Long.compare(m1.getTimestamp(), m2.getTimestamp())
-                );
-                
-                // Update LiveData on the main thread
-                messages.postValue(messageList);
-                
-                // Set up realtime subscription
-                setupRealtimeSubscription(client, user1, user2);
-                
-            } catch (Exception e) {
-                Log.e("ChatViewModel", "Error loading messages: " + e.getMessage(), e);
-                messages.postValue(new ArrayList<>());
+        // The ViewModel outlives configuration changes, so the window is already populated
+        if (user1.equals(this.user1) && user2.equals(this.user2)) return;
+
+        // Switching conversations: drop everything still loading or listening for the previous one
+        if (this.user1 != null) {
+            cancelLoads();
+            messageList.clear();
+            hasOlderPages = true;
+            hasNewerPages = false;
+        }
+        this.user1 = user1;
+        this.user2 = user2;
+        // Cancelled with viewModelScope when the screen goes away, or by the next switch
+        CoroutineScope scope = SupabaseWrapper.newChildScope(ViewModelKt.getViewModelScope(this));
+        loadScope = scope;
+
+        int traceCookie = loadTraceCookie.incrementAndGet();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(LOAD_TRACE_SECTION, traceCookie);
+        }
+
+        MessageStore store = MessageStore.getInstance(ShareEverythingApp.getInstance());
+        CompletableFuture.supplyAsync(() -> {
+            if (!CoroutineScopeKt.isActive(scope)) throw new CancellationException("Conversation switched");
+
+            // Listen before fetching so nothing inserted during the fetch is missed
+            setupRealtimeSubscription(scope, user1, user2);
+
+            // Render the newest cached page first so the chat opens immediately
+            List<Message> cachedMessages = store.loadPageBefore(user1, user2, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE);
+            appendToWindow(scope, cachedMessages);
+
+            // Messages still waiting in the outbox, e.g. typed while offline
+            MessageOutbox outbox = ShareEverythingApp.getInstance().getMessageOutbox();
+            outbox.removeListener(outboxListener);
+            outbox.addListener(outboxListener);
+            appendToWindow(scope, outbox.getUnsentMessages(user1, user2));
+
+            // Not the newest cached row: realtime may have cached rows past what was fetched
+            return store.loadSyncCursor(user1, user2);
+        }, IO).thenCompose(cursor -> fetchNewest(scope, store, user1, user2, cursor)
+        ).whenComplete((delta, error) -> {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(LOAD_TRACE_SECTION, traceCookie);
+            }
+            if (error != null) {
+                logUnlessCancelled("Error loading messages", error);
+                return;
             }
-        }).start();
-    }
-
-    private void setupRealtimeSubscription(io.github.jan.supabase.SupabaseClient client, 
-                                         String user1, String user2) {
-        // Unsubscribe from any existing subscription
-        if (subscription != null) {
-            try {
-                Log.d("ChatViewModel", "Unsubscribing from existing channel");
-                SupabaseWrapper.unsubscribeFromChannel(subscription);
-            } catch (Exception e) {
-                Log.e("ChatViewModel", "Error unsubscribing from channel: " + e.getMessage());
+            AppLog.d("ChatViewModel", () -> "Received " + delta.messages.size() + " new messages from Supabase");
+            if (delta.skippedHistory) {
+                replaceWindow(scope, delta.messages);
+            } else {
+                appendToWindow(scope, delta.messages);
             }
+        });
+    }
+
+    // Fetches what the cache is missing at the newest end, continuing from the sync cursor
+    private static CompletableFuture<Delta> fetchNewest(CoroutineScope scope, MessageStore store,
+                                                        String user1, String user2,
+                                                        MessageStore.SyncCursor cursor) {
+        var client = SupabaseClientProvider.INSTANCE.getClient();
+        if (cursor == null) {
+            // Never fetched: only the newest page, older ones load on scroll
+            return SupabaseWrapper.fetchMessagesPageAsync(
+                scope, client, user1, user2, Long.MAX_VALUE, Long.MAX_VALUE, PAGE_SIZE
+            ).thenApplyAsync(page -> {
+                store.saveMessages(page);
+                if (!page.isEmpty()) store.advanceSyncCursor(page.get(page.size() - 1));
+                return new Delta(page, false);
+            }, IO);
         }
+        return fetchDelta(scope, client, store, user1, user2, cursor.timestamp, cursor.id);
+    }
 
-        Log.d("ChatViewModel", "Setting up new realtime subscription for users: " + user1 + " and " + user2);
-
-        // Set up new subscription using Kotlin wrapper
-        subscription = SupabaseWrapper.setupRealtimeSubscription(
-            client, 
-            user1, 
-            user2,
-            messageJson -> {
-                try {
-                    Log.d("ChatViewModel", "Received realtime message: " + messageJson.toString());
-                    
-                    // Create a new Message object from the received data
-                    Message newMessage = new Message(
-                        messageJson.optString("id"),
-                        messageJson.getString("sender"),
-                        messageJson.getString("receiver"),
-                        messageJson.getString("content"),
-                        messageJson.getString("type"),
-                        messageJson.optLong("timestamp", System.currentTimeMillis()),  // Use current time as fallback
-                        messageJson.optString("created_at")
-                    );
-                    
-                    // Get current messages and add the new one
-                    List<Message> currentMessages = messages.getValue();
-                    if (currentMessages != null) {
-                        List<Message> updatedMessages = new ArrayList<>(currentMessages);
-                        
-                        // Check if message already exists to avoid duplicates
-                        boolean messageExists = false;
-                        for (Message msg : updatedMessages) {
-                            if (msg.getTimestamp() == newMessage.getTimestamp() &&
-                                msg.getSender().equals(newMessage.getSender()) &&
-                                msg.getContent().equals(newMessage.getContent())) {
-                                messageExists = true;
-                                break;
-                            }
-                        }
-                        
-                        if (!messageExists) {
-                            updatedMessages.add(newMessage);
-                            
-                            // Sort messages by timestamp
-                            Collections.sort(updatedMessages, (m1, m2) -> 
-                                Long.compare(m1.getTimestamp(), m2.getTimestamp())
-                            );
-                            
-                            // Update LiveData on the main thread
-                            messages.postValue(updatedMessages);
-                            Log.d("ChatViewModel", "Updated messages list size: " + updatedMessages.size());
-                        } else {
-                            Log.d("ChatViewModel", "Message already exists in list, skipping");
-                        }
+    // Fetches what is newer than the cursor. That is usually less than a page; when it is more,
+    // only the newest MAX_WINDOW_SIZE messages are fetched instead of walking the whole backlog,
+    // and whatever lies between is recorded as a history gap that loads from the server on scroll
+    private static CompletableFuture<Delta> fetchDelta(CoroutineScope scope, SupabaseClient client,
+                                                       MessageStore store, String user1, String user2,
+                                                       long afterTimestamp, long afterId) {
+        return SupabaseWrapper.fetchMessagesAfterAsync(scope, client, user1, user2, afterTimestamp, afterId, PAGE_SIZE)
+            .thenComposeAsync(delta -> {
+                store.saveMessages(delta);
+                if (delta.size() < PAGE_SIZE) {
+                    if (!delta.isEmpty()) store.advanceSyncCursor(delta.get(delta.size() - 1));
+                    return CompletableFuture.completedFuture(new Delta(delta, false));
+                }
+                // Still contiguous with the cache up to here
+                Message contiguous = delta.get(delta.size() - 1);
+                return SupabaseWrapper.fetchMessagesPageAsync(
+                    scope, client, user1, user2, Long.MAX_VALUE, Long.MAX_VALUE, MAX_WINDOW_SIZE
+                ).thenApplyAsync(newest -> {
+                    store.saveMessages(newest);
+                    if (newest.isEmpty() || MessageList.compare(newest.get(0), contiguous) <= 0) {
+                        // The newest window reaches back to the first page, nothing was skipped
+                        store.advanceSyncCursor(newest.isEmpty() ? contiguous : newest.get(newest.size() - 1));
+                        List<Message> combined = new ArrayList<>(delta);
+                        combined.addAll(newest);
+                        return new Delta(combined, false);
+                    }
+                    store.addGap(contiguous, newest.get(0));
+                    store.advanceSyncCursor(newest.get(newest.size() - 1));
+                    return new Delta(newest, true);
+                }, IO);
+            }, IO);
+    }
+
+    // Called by the multiplexer when realtime comes back after an outage. Rows inserted while it
+    // was down were never pushed, so fetch from the sync cursor; rows pushed before or after the
+    // outage come back too and are dropped as duplicates. Also retries an initial load that failed
+    private void catchUp(CoroutineScope scope, String user1, String user2) {
+        if (!CoroutineScopeKt.isActive(scope)) return;
+
+        MessageStore store = MessageStore.getInstance(ShareEverythingApp.getInstance());
+        CompletableFuture.supplyAsync(
+            () -> store.loadSyncCursor(user1, user2), IO
+        ).thenCompose(cursor -> fetchNewest(scope, store, user1, user2, cursor)
+        ).whenComplete((missed, error) -> {
+            if (error != null) {
+                logUnlessCancelled("Error catching up after reconnect", error);
+                return;
+            }
+            AppLog.d("ChatViewModel", () -> "Caught up " + missed.messages.size() + " messages after reconnect");
+            // While scrolled back in history they stay in the store until paged in, across the
+            // gap if there is one
+            if (hasNewerPages) return;
+            if (missed.skippedHistory) {
+                replaceWindow(scope, missed.messages);
+            } else {
+                appendToWindow(scope, missed.messages);
+            }
+        });
+    }
+
+    // Shows a message we are sending before the server has confirmed it
+    public void addLocalMessage(Message message) {
+        if (hasNewerPages) return;
+        messageList.add(message);
+        trimOldest();
+    }
+
+    // Called from the main thread when the list is scrolled to the top
+    public void loadOlderMessages() {
+        if (user1 == null || !hasOlderPages || !pageLoading.compareAndSet(false, true)) return;
+
+        CoroutineScope scope = loadScope;
+        String user1 = this.user1;
+        String user2 = this.user2;
+        Message oldest = messageList.first();
+        long beforeTimestamp = oldest != null ? oldest.getTimestamp() : Long.MAX_VALUE;
+        long beforeId = oldest != null ? MessageList.numericId(oldest) : Long.MAX_VALUE;
+        MessageStore store = MessageStore.getInstance(ShareEverythingApp.getInstance());
+
+        CompletableFuture.supplyAsync(() -> {
+            MessageStore.HistoryGap gap = store.findGapBefore(user1, user2, beforeTimestamp, beforeId);
+            List<Message> page = store.loadPageBefore(user1, user2, beforeTimestamp, beforeId, PAGE_SIZE);
+            // Cached rows beyond a gap do not connect to the window; the gap is filled first
+            if (gap != null) page.removeIf(gap::isAtOrBeforeOlderEdge);
+            return new CachedPage(page, gap);
+        }, IO).thenCompose(cached -> {
+            List<Message> page = cached.messages;
+            MessageStore.HistoryGap gap = cached.gap;
+            if (page.size() == PAGE_SIZE) return CompletableFuture.completedFuture(page);
+
+            // The cache ran out or reached a gap, continue from the server just before the
+            // oldest row we have
+            Message cursor = page.isEmpty() ? oldest : page.get(0);
+            long remoteTimestamp = cursor != null ? cursor.getTimestamp() : Long.MAX_VALUE;
+            long remoteId = cursor != null ? MessageList.numericId(cursor) : Long.MAX_VALUE;
+
+            var client = SupabaseClientProvider.INSTANCE.getClient();
+            return SupabaseWrapper.fetchMessagesPageAsync(
+                scope, client, user1, user2, remoteTimestamp, remoteId, PAGE_SIZE
+            ).thenApplyAsync(remote -> {
+                store.saveMessages(remote);
+                if (remote.size() < PAGE_SIZE) {
+                    hasOlderPages = false;
+                }
+                if (gap != null) {
+                    if (remote.size() < PAGE_SIZE || gap.isAtOrBeforeOlderEdge(remote.get(0))) {
+                        store.removeGap(gap);
                     } else {
-                        // If no current messages, create new list with just this message
-                        List<Message> newMessages = new ArrayList<>();
-                        newMessages.add(newMessage);
-                        messages.postValue(newMessages);
-                        Log.d("ChatViewModel", "Created new messages list with size: 1");
+                        store.shrinkGapFromNewer(gap, remote.get(0));
                     }
-                } catch (Exception e) {
-                    Log.e("ChatViewModel", "Error handling realtime message: " + e.getMessage(), e);
                 }
-                return null;
+                List<Message> combined = new ArrayList<>(remote);
+                combined.addAll(page);
+                return combined;
+            }, IO);
+        }).whenComplete((page, error) -> {
+            pageLoading.set(false);
+            if (error != null) {
+                logUnlessCancelled("Error loading older messages", error);
+                return;
+            }
+            prependToWindow(scope, page);
+        });
+    }
+
+    // Called from the main thread when the list is scrolled to the bottom after older pages
+    // pushed newer messages out
+    public void loadNewerMessages() {
+        if (user1 == null || !hasNewerPages || !pageLoading.compareAndSet(false, true)) return;
+
+        Message newest = messageList.last();
+        if (newest == null) {
+            hasNewerPages = false;
+            pageLoading.set(false);
+            return;
+        }
+        CoroutineScope scope = loadScope;
+        String user1 = this.user1;
+        String user2 = this.user2;
+        MessageStore store = MessageStore.getInstance(ShareEverythingApp.getInstance());
+        long afterTimestamp = newest.getTimestamp();
+        long afterId = MessageList.numericId(newest);
+        CompletableFuture.supplyAsync(() -> {
+            MessageStore.HistoryGap gap = store.findGapAfter(user1, user2, afterTimestamp, afterId);
+            List<Message> page = store.loadPageAfter(user1, user2, afterTimestamp, afterId, PAGE_SIZE);
+            // Cached rows beyond a gap do not connect to the window; the gap is filled first
+            if (gap != null) page.removeIf(gap::isAtOrAfterNewerEdge);
+            return new CachedPage(page, gap);
+        }, IO).thenCompose(cached -> {
+            List<Message> page = cached.messages;
+            MessageStore.HistoryGap gap = cached.gap;
+            if (gap == null || page.size() == PAGE_SIZE) return CompletableFuture.completedFuture(page);
+
+            // Reached a gap left by a catch-up while scrolled back, fill it forward from the server
+            Message cursor = page.isEmpty() ? newest : page.get(page.size() - 1);
+            var client = SupabaseClientProvider.INSTANCE.getClient();
+            return SupabaseWrapper.fetchMessagesAfterAsync(
+                scope, client, user1, user2, cursor.getTimestamp(), MessageList.numericId(cursor), PAGE_SIZE
+            ).thenApplyAsync(remote -> {
+                store.saveMessages(remote);
+                if (remote.size() < PAGE_SIZE || gap.isAtOrAfterNewerEdge(remote.get(remote.size() - 1))) {
+                    store.removeGap(gap);
+                } else {
+                    store.shrinkGapFromOlder(gap, remote.get(remote.size() - 1));
+                }
+                List<Message> combined = new ArrayList<>(page);
+                combined.addAll(remote);
+                return combined;
+            }, IO);
+        }).whenComplete((page, error) -> {
+            pageLoading.set(false);
+            if (error != null) {
+                logUnlessCancelled("Error loading newer messages", error);
+                return;
+            }
+            if (page.size() < PAGE_SIZE) {
+                hasNewerPages = false;
+            }
+            appendToWindow(scope, page);
+        });
+    }
+
+    // Called from the main thread when the chat is paused; everything in the window
+    // up to the newest message from the peer counts as read. That message has a server
+    // timestamp, unlike our own pending ones, whose clock may run ahead of the server's
+    public void markConversationRead() {
+        if (user1 == null) return;
+        Message newest = null;
+        for (int i = messageList.size() - 1; i >= 0; i--) {
+            Message message = messageList.get(i);
+            if (message.getSender().equals(user2) && message.getId() != null && !message.getId().isEmpty()) {
+                newest = message;
+                break;
+            }
+        }
+        if (newest == null) return;
+
+        String username = user1;
+        String peer = user2;
+        long lastReadTimestamp = newest.getTimestamp();
+        MessageStore store = MessageStore.getInstance(ShareEverythingApp.getInstance());
+        // The conversation list can resume before the writes below land
+        store.noteConversationRead(username, peer, lastReadTimestamp);
+        // Not tied to viewModelScope: closing the chat is exactly when this has to go out
+        CompletableFuture.runAsync(() -> store.markConversationRead(username, peer, lastReadTimestamp), IO
+        ).thenCompose(ignored -> SupabaseWrapper.markConversationReadAsync(
+            SupabaseClientProvider.INSTANCE.getClient(), username, peer, lastReadTimestamp)
+        ).whenComplete((ignored, error) -> {
+            if (error != null) logUnlessCancelled("Error marking conversation read", error);
+        });
+    }
+
+    private static void logUnlessCancelled(String message, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof CancellationException) {
+            AppLog.d("ChatViewModel", message + ": cancelled");
+        } else {
+            AppLog.e("ChatViewModel", message + ": " + cause.getMessage(), cause);
+        }
+    }
+
+    // Results of a cancelled load are dropped instead of reaching the window
+    private void appendToWindow(CoroutineScope scope, List<Message> page) {
+        if (CoroutineScopeKt.isActive(scope)) appendToWindow(page);
+    }
+
+    private void prependToWindow(CoroutineScope scope, List<Message> page) {
+        if (CoroutineScopeKt.isActive(scope)) prependToWindow(page);
+    }
+
+    // Adds newer messages at the end, dropping the oldest ones beyond MAX_WINDOW_SIZE
+    private void appendToWindow(List<Message> page) {
+        if (page.isEmpty()) return;
+        logRows(page);
+
+        mainHandler.post(() -> {
+            messageList.addAll(page);
+            trimOldest();
+            AppLog.d("ChatViewModel", () -> "Window size after append: " + messageList.size());
+        });
+    }
+
+    // Swaps the window for newer messages that do not connect to it; the history in between
+    // loads on scroll. Messages still being sent stay, they belong at the newest end
+    private void replaceWindow(CoroutineScope scope, List<Message> page) {
+        if (!CoroutineScopeKt.isActive(scope) || page.isEmpty()) return;
+        logRows(page);
+
+        mainHandler.post(() -> {
+            List<Message> unsent = new ArrayList<>();
+            for (Message message : messageList.snapshot()) {
+                if (message.getId() == null || message.getId().isEmpty()) unsent.add(message);
+            }
+            messageList.clear();
+            messageList.addAll(page);
+            messageList.addAll(unsent);
+            hasOlderPages = true;
+            hasNewerPages = false;
+            trimOldest();
+            AppLog.d("ChatViewModel", () -> "Window replaced past a history gap: " + messageList.size());
+        });
+    }
+
+    // Adds older messages at the start, dropping the newest ones beyond MAX_WINDOW_SIZE
+    private void prependToWindow(List<Message> page) {
+        if (page.isEmpty()) return;
+        logRows(page);
+
+        mainHandler.post(() -> {
+            messageList.addAll(page);
+            if (messageList.size() > MAX_WINDOW_SIZE) {
+                messageList.removeLast(messageList.size() - MAX_WINDOW_SIZE);
+                hasNewerPages = true;
+            }
+            AppLog.d("ChatViewModel", () -> "Window size after prepend: " + messageList.size());
+        });
+    }
+
+    // Ids and timestamps only, never content
+    private static void logRows(List<Message> page) {
+        if (!AppLog.isLoggable(Log.DEBUG)) return;
+        for (Message message : page) {
+            ROW_LOG.log(() -> "Row " + message.getId() + " at " + message.getTimestamp());
+        }
+    }
+
+    private void trimOldest() {
+        if (messageList.size() > MAX_WINDOW_SIZE) {
+            messageList.removeFirst(messageList.size() - MAX_WINDOW_SIZE);
+            hasOlderPages = true;
+        }
+    }
+
+    private void setupRealtimeSubscription(CoroutineScope scope, String user1, String user2) {
+        AppLog.d("ChatViewModel", "Listening for realtime messages between " + user1 + " and " + user2);
+
+        RealtimeMultiplexer realtime = ShareEverythingApp.getInstance().getRealtime(user1);
+        RealtimeMultiplexer.Registration registration = realtime.addListener(user2, this::onRealtimeMessage);
+        RealtimeMultiplexer.Registration onReconnect = realtime.addReconnectListener(
+            () -> catchUp(scope, user1, user2));
+        // Checked under the same lock cancelLoads takes, so a listener for a load that was
+        // cancelled meanwhile is removed instead of outliving it
+        synchronized (this) {
+            if (CoroutineScopeKt.isActive(scope)) {
+                realtimeRegistration = registration;
+                reconnectRegistration = onReconnect;
+                return;
             }
-        );
+        }
+        registration.remove();
+        onReconnect.remove();
+        throw new CancellationException("Load cancelled while subscribing");
+    }
+
+    private synchronized void cancelLoads() {
+        if (loadScope != null) CoroutineScopeKt.cancel(loadScope, null);
+        if (realtimeRegistration != null) {
+            realtimeRegistration.remove();
+            realtimeRegistration = null;
+        }
+        if (reconnectRegistration != null) {
+            reconnectRegistration.remove();
+            reconnectRegistration = null;
+        }
+    }
+
+    // Called on the main thread when a queued message is sent or fails
+    private void onOutboxStateChanged(Message message) {
+        if (hasNewerPages || !isThisConversation(message)) return;
+        messageList.add(message);
+    }
+
+    private boolean isThisConversation(Message message) {
+        return (message.getSender().equals(user1) && message.getReceiver().equals(user2))
+            || (message.getSender().equals(user2) && message.getReceiver().equals(user1));
+    }
+
+    private void onRealtimeMessage(Message newMessage) {
+        try {
+            REALTIME_LOG.log(() -> "Received realtime message: " + newMessage.getId());
+
+            // Off the multiplexer's callback thread, which delivers every conversation's messages.
+            // The sync cursor stays where it is, the next delta covers anything missed before it
+            MessageStore.getInstance(ShareEverythingApp.getInstance())
+                .saveMessagesAsync(Collections.singletonList(newMessage));
+
+            // While scrolled back in history the message stays in the store until paged in
+            if (hasNewerPages) {
+                AppLog.d("ChatViewModel", "Window is behind the newest messages, caching only");
+                return;
+            }
+
+            // Duplicates are dropped by MessageList
+            appendToWindow(Collections.singletonList(newMessage));
+        } catch (Exception e) {
+            AppLog.e("ChatViewModel", "Error handling realtime message: " + e.getMessage(), e);
+        }
     }
 
     @Override
     protected void onCleared() {
         super.onCleared();
-        if (subscription != null) {
-            try {
-                Log.d("ChatViewModel", "Clearing ViewModel, unsubscribing from channel");
-                SupabaseWrapper.unsubscribeFromChannel(subscription);
-            } catch (Exception e) {
-                Log.e("ChatViewModel", "Error unsubscribing from channel in onCleared: " + e.getMessage());
-            }
-        }
+        mainHandler.removeCallbacksAndMessages(null);
+        messageList.setListener(null);
+        ShareEverythingApp.getInstance().getMessageOutbox().removeListener(outboxListener);
+        AppLog.d("ChatViewModel", "Clearing ViewModel, removing realtime listener");
+        // viewModelScope is already cancelled; this also drops the realtime listener
+        cancelLoads();
     }
-} 
\ No newline at end of file
+}
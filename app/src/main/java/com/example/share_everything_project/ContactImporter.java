@@ -0,0 +1,180 @@
+package com.example.share_everything_project;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports phone contacts on a background thread, streaming the cursor in batches.
+ * After the first full import only contacts changed since the previous run are read,
+ * using the provider's CONTACT_LAST_UPDATED_TIMESTAMP, along with the ids of contacts
+ * deleted or left without a number since then.
+ */
+public class ContactImporter {
+    private static final String TAG = "ContactImporter";
+    private static final String PREFS = "ContactImport";
+    private static final String KEY_LAST_SYNC = "last_sync_timestamp";
+    // Bumped when imported rows gain data older syncs did not record, forcing one full import;
+    // version 2 added contact ids
+    private static final String KEY_SYNC_VERSION = "sync_version";
+    private static final int SYNC_VERSION = 2;
+    private static final int BATCH_SIZE = 200;
+
+    // One import at a time across all activities, so two runs never race on KEY_LAST_SYNC;
+    // the thread goes away when idle
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+        1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Called on the main thread
+    public interface Listener {
+        // New or changed contacts, one entry per contact id
+        void onBatch(List<Conversation> contacts);
+        // Contacts to drop from the list; only reported by incremental imports
+        void onRemoved(List<Long> contactIds);
+        void onFinished(int total, boolean incremental);
+        void onFailed(Exception error);
+    }
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+    private boolean running;
+
+    public ContactImporter(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    // Returns false if an import is already running
+    public boolean start(Listener listener) {
+        if (running) return false;
+        running = true;
+        cancelled = false;
+        executor.execute(() -> runImport(listener));
+        return true;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void runImport(Listener listener) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        long lastSync = prefs.getInt(KEY_SYNC_VERSION, 1) < SYNC_VERSION ? 0 : prefs.getLong(KEY_LAST_SYNC, 0);
+        boolean incremental = lastSync > 0;
+        long newestUpdate = lastSync;
+        int total = 0;
+
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
+                new String[]{
+                    ContactsContract.CommonDataKinds.Phone.CONTACT_ID,
+                    ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
+                    ContactsContract.CommonDataKinds.Phone.NUMBER,
+                    ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP
+                },
+                ContactsContract.CommonDataKinds.Phone.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?",
+                new String[]{String.valueOf(lastSync)},
+                ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME + " ASC")) {
+            if (cursor == null) throw new IllegalStateException("Contacts provider returned no cursor");
+
+            // Contacts with several numbers come back once per number; keep the first
+            Set<Long> seen = new HashSet<>();
+            List<Conversation> batch = new ArrayList<>(BATCH_SIZE);
+            while (cursor.moveToNext() && !cancelled) {
+                long contactId = cursor.getLong(0);
+                String name = cursor.getString(1);
+                String phoneNumber = cursor.getString(2);
+                newestUpdate = Math.max(newestUpdate, cursor.getLong(3));
+
+                // Skip if either name or number is null
+                if (name == null || phoneNumber == null || !seen.add(contactId)) continue;
+
+                batch.add(Conversation.contact(contactId, name, phoneNumber));
+                if (batch.size() == BATCH_SIZE) {
+                    post(listener, batch);
+                    total += batch.size();
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            post(listener, batch);
+            total += batch.size();
+
+            if (incremental && !cancelled) {
+                newestUpdate = Math.max(newestUpdate, postRemoved(listener, lastSync));
+            }
+        } catch (Exception e) {
+            AppLog.e(TAG, "Error importing contacts", e);
+            mainHandler.post(() -> {
+                running = false;
+                listener.onFailed(e);
+            });
+            return;
+        }
+
+        // A cancelled import is redone in full next time rather than recording a partial sync
+        if (!cancelled) {
+            prefs.edit().putLong(KEY_LAST_SYNC, newestUpdate).putInt(KEY_SYNC_VERSION, SYNC_VERSION).apply();
+        }
+        AppLog.d(TAG, "Imported " + total + " contacts" + (incremental ? " changed since " + lastSync : ""));
+        int imported = total;
+        mainHandler.post(() -> {
+            running = false;
+            listener.onFinished(imported, incremental);
+        });
+    }
+
+    // Reports contacts deleted, or changed and left without a number, since lastSync; returns
+    // the newest deletion time seen, so the next run starts after it
+    private long postRemoved(Listener listener, long lastSync) {
+        long newestDeletion = lastSync;
+        List<Long> removed = new ArrayList<>();
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.DeletedContacts.CONTENT_URI,
+                new String[]{
+                    ContactsContract.DeletedContacts.CONTACT_ID,
+                    ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP
+                },
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?",
+                new String[]{String.valueOf(lastSync)},
+                null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                removed.add(cursor.getLong(0));
+                newestDeletion = Math.max(newestDeletion, cursor.getLong(1));
+            }
+        }
+        try (Cursor cursor = context.getContentResolver().query(
+                ContactsContract.Contacts.CONTENT_URI,
+                new String[]{ContactsContract.Contacts._ID},
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ? AND "
+                    + ContactsContract.Contacts.HAS_PHONE_NUMBER + " = 0",
+                new String[]{String.valueOf(lastSync)},
+                null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                removed.add(cursor.getLong(0));
+            }
+        }
+        if (!removed.isEmpty()) {
+            mainHandler.post(() -> listener.onRemoved(removed));
+        }
+        return newestDeletion;
+    }
+
+    private void post(Listener listener, List<Conversation> batch) {
+        if (batch.isEmpty()) return;
+        mainHandler.post(() -> listener.onBatch(batch));
+    }
+}
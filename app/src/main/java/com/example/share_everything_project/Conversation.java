@@ -0,0 +1,134 @@
+package com.example.share_everything_project;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One row of the conversation list: an app user or a phone contact, with the latest message
+ * and unread count when there are any. Immutable; updates return a copy with the same stable id.
+ */
+public class Conversation {
+    private static final String APP_USER = "app_user";
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private final long id;
+    private final String name;
+    // Null for app users
+    private final String phoneNumber;
+    // The phone contact's ContactsContract id; 0 for app users and contacts saved before ids were kept
+    private final long contactId;
+    private final String lastContent;
+    private final String lastType;
+    private final long lastTimestamp;
+    private final long unreadCount;
+
+    private Conversation(long id, String name, String phoneNumber, long contactId, String lastContent,
+                         String lastType, long lastTimestamp, long unreadCount) {
+        this.id = id;
+        this.name = name;
+        this.phoneNumber = phoneNumber;
+        this.contactId = contactId;
+        this.lastContent = lastContent;
+        this.lastType = lastType;
+        this.lastTimestamp = lastTimestamp;
+        this.unreadCount = unreadCount;
+    }
+
+    public static Conversation appUser(String name) {
+        return new Conversation(nextId.incrementAndGet(), name, null, 0, null, null, 0, 0);
+    }
+
+    public static Conversation contact(String name, String phoneNumber) {
+        return contact(0, name, phoneNumber);
+    }
+
+    public static Conversation contact(long contactId, String name, String phoneNumber) {
+        return new Conversation(nextId.incrementAndGet(), name, phoneNumber, contactId, null, null, 0, 0);
+    }
+
+    // Parses the "name|app_user" / "name|phone" entries older versions saved in SharedPreferences
+    public static Conversation fromEntry(String entry) {
+        int separator = entry.indexOf('|');
+        if (separator < 0) return appUser(entry);
+        String name = entry.substring(0, separator);
+        String info = entry.substring(separator + 1);
+        return APP_USER.equals(info) ? appUser(name) : contact(name, info);
+    }
+
+    // Applies a cached or fetched summary; one older than the current preview, e.g. a cached
+    // summary landing after a realtime message, is ignored like an older message
+    public Conversation withSummary(ConversationSummary summary) {
+        if (summary.getLastTimestamp() < lastTimestamp) return this;
+        return new Conversation(id, name, phoneNumber, contactId, summary.getLastContent(), summary.getLastType(),
+            summary.getLastTimestamp(), summary.getUnreadCount());
+    }
+
+    // Applies a newly arrived message; older messages than the current preview are ignored
+    public Conversation withMessage(Message message, boolean unread) {
+        if (message.getTimestamp() < lastTimestamp) return this;
+        return new Conversation(id, name, phoneNumber, contactId, message.getContent(), message.getType(),
+            message.getTimestamp(), unread ? unreadCount + 1 : unreadCount);
+    }
+
+    public Conversation withUnread(long unreadCount) {
+        if (unreadCount == this.unreadCount) return this;
+        return new Conversation(id, name, phoneNumber, contactId, lastContent, lastType, lastTimestamp, unreadCount);
+    }
+
+    // The same row after the phone contact was renamed or its number changed
+    public Conversation withContact(Conversation contact) {
+        return new Conversation(id, contact.name, contact.phoneNumber, contact.contactId, lastContent, lastType,
+            lastTimestamp, unreadCount);
+    }
+
+    // Whether contact, as just read from the phone, differs from what this row shows
+    public boolean differsFromContact(Conversation contact) {
+        return !name.equals(contact.name) || !Objects.equals(phoneNumber, contact.phoneNumber)
+            || contactId != contact.contactId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isAppUser() {
+        return phoneNumber == null;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public long getContactId() {
+        return contactId;
+    }
+
+    public String getLastContent() {
+        return lastContent;
+    }
+
+    public String getLastType() {
+        return lastType;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public long getUnreadCount() {
+        return unreadCount;
+    }
+
+    @Override
+    public String toString() {
+        return "Conversation{" +
+                "name='" + name + '\'' +
+                ", lastTimestamp=" + lastTimestamp +
+                ", unreadCount=" + unreadCount +
+                '}';
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.share_everything_project;
+
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Objects;
+
+public class ConversationAdapter extends ListAdapter<Conversation, ConversationAdapter.ConversationViewHolder> {
+    // Diffs run on AsyncListDiffer's background executor, so a re-sort only moves and rebinds changed rows
+    private static final DiffUtil.ItemCallback<Conversation> DIFF_CALLBACK = new DiffUtil.ItemCallback<Conversation>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Conversation oldItem, @NonNull Conversation newItem) {
+            // A renamed contact keeps its id, so the name and number are compared too
+            return oldItem.getName().equals(newItem.getName())
+                && Objects.equals(oldItem.getPhoneNumber(), newItem.getPhoneNumber())
+                && oldItem.getLastTimestamp() == newItem.getLastTimestamp()
+                && oldItem.getUnreadCount() == newItem.getUnreadCount()
+                && Objects.equals(oldItem.getLastContent(), newItem.getLastContent())
+                && Objects.equals(oldItem.getLastType(), newItem.getLastType());
+        }
+    };
+
+    public interface OnConversationClickListener {
+        void onConversationClick(Conversation conversation);
+    }
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.SHORT, Locale.getDefault());
+    private final OnConversationClickListener listener;
+
+    public ConversationAdapter(OnConversationClickListener listener) {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public ConversationViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_conversation, parent, false);
+        ConversationViewHolder holder = new ConversationViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                listener.onConversationClick(getItem(position));
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ConversationViewHolder holder, int position) {
+        Conversation conversation = getItem(position);
+        holder.nameText.setText(conversation.getName());
+
+        if (conversation.getLastTimestamp() > 0) {
+            Date date = new Date(conversation.getLastTimestamp());
+            holder.timeText.setText(DateUtils.isToday(conversation.getLastTimestamp())
+                ? timeFormat.format(date) : dateFormat.format(date));
+            holder.previewText.setText("file".equals(conversation.getLastType())
+                ? "File" : conversation.getLastContent());
+        } else {
+            holder.timeText.setText("");
+            holder.previewText.setText(conversation.isAppUser() ? "No messages yet" : conversation.getPhoneNumber());
+        }
+
+        if (conversation.getUnreadCount() > 0) {
+            holder.unreadText.setText(String.valueOf(conversation.getUnreadCount()));
+            holder.unreadText.setVisibility(View.VISIBLE);
+        } else {
+            holder.unreadText.setVisibility(View.GONE);
+        }
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getId();
+    }
+
+    static class ConversationViewHolder extends RecyclerView.ViewHolder {
+        TextView nameText;
+        TextView previewText;
+        TextView timeText;
+        TextView unreadText;
+
+        ConversationViewHolder(View itemView) {
+            super(itemView);
+            nameText = itemView.findViewById(R.id.nameText);
+            previewText = itemView.findViewById(R.id.previewText);
+            timeText = itemView.findViewById(R.id.timeText);
+            unreadText = itemView.findViewById(R.id.unreadText);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.share_everything_project;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The user's conversation list, one row per name in the order entries were added.
+ * Writes are incremental and run on a single background thread, in call order.
+ */
+public class ConversationStore {
+    private static final String TAG = "ConversationStore";
+    private static final String LEGACY_PREFS = "ShareHubPrefs";
+    private static final String LEGACY_KEY = "conversations";
+    private static ConversationStore instance;
+
+    private final Context context;
+    private final AppDatabase database;
+    // Preferences file older versions kept the list in; null skips the migration
+    private final String legacyPrefs;
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+
+    public static synchronized ConversationStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConversationStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ConversationStore(Context context) {
+        this(context, AppDatabase.getInstance(context), LEGACY_PREFS);
+    }
+
+    // Benchmarks pass their own database and no legacyPrefs, so they never touch the user's data
+    ConversationStore(Context context, AppDatabase database, String legacyPrefs) {
+        this.context = context;
+        this.database = database;
+        this.legacyPrefs = legacyPrefs;
+    }
+
+    // Blocking; call from a background thread
+    public List<Conversation> loadAll() {
+        migrateFromPreferences();
+
+        List<Conversation> result = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(
+                "conversations", new String[]{"name", "phone_number", "contact_id"}, null, null, null, null, "seq ASC")) {
+            while (cursor.moveToNext()) {
+                String name = cursor.getString(0);
+                result.add(cursor.isNull(1)
+                    ? Conversation.appUser(name)
+                    : Conversation.contact(cursor.isNull(2) ? 0 : cursor.getLong(2), name, cursor.getString(1)));
+            }
+        }
+        AppLog.d(TAG, "Loaded " + result.size() + " conversations");
+        return result;
+    }
+
+    // Names already stored are left as they are
+    public void add(Conversation conversation) {
+        addAll(Collections.singletonList(conversation));
+    }
+
+    public void addAll(List<Conversation> conversations) {
+        if (conversations.isEmpty()) return;
+
+        List<Conversation> copy = new ArrayList<>(conversations);
+        writeExecutor.execute(() -> {
+            try {
+                addAllBlocking(copy);
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error saving " + copy.size() + " conversations", e);
+            }
+        });
+    }
+
+    // Same as addAll, on the calling thread
+    void addAllBlocking(List<Conversation> conversations) {
+        insert(database.getWritableDatabase(), conversations);
+    }
+
+    // Phone contacts read on re-sync: rows are matched by contact id, or by name for contacts
+    // saved before ids were kept, and updated in place; contacts not stored yet are added
+    public void saveContacts(List<Conversation> contacts) {
+        if (contacts.isEmpty()) return;
+
+        List<Conversation> copy = new ArrayList<>(contacts);
+        writeExecutor.execute(() -> {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (Conversation contact : copy) {
+                    values.clear();
+                    values.put("name", contact.getName());
+                    values.put("phone_number", contact.getPhoneNumber());
+                    values.put("contact_id", contact.getContactId());
+                    String contactId = String.valueOf(contact.getContactId());
+                    // A rename onto a name that is already taken is ignored, as in MainActivity
+                    int updated = db.updateWithOnConflict("conversations", values, "contact_id = ?",
+                        new String[]{contactId}, SQLiteDatabase.CONFLICT_IGNORE);
+                    if (updated == 0) {
+                        updated = db.updateWithOnConflict("conversations", values,
+                            "contact_id IS NULL AND phone_number IS NOT NULL AND name = ?",
+                            new String[]{contact.getName()}, SQLiteDatabase.CONFLICT_IGNORE);
+                    }
+                    if (updated == 0) {
+                        db.insertWithOnConflict("conversations", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+                    }
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error saving " + copy.size() + " contacts", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    // Phone contacts that were deleted, or no longer have a number
+    public void removeContacts(List<Long> contactIds) {
+        if (contactIds.isEmpty()) return;
+
+        List<Long> copy = new ArrayList<>(contactIds);
+        writeExecutor.execute(() -> {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (long contactId : copy) {
+                    db.delete("conversations", "contact_id = ?", new String[]{String.valueOf(contactId)});
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error removing " + copy.size() + " contacts", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    private void insert(SQLiteDatabase db, List<Conversation> conversations) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Conversation conversation : conversations) {
+                values.clear();
+                values.put("name", conversation.getName());
+                values.put("phone_number", conversation.getPhoneNumber());
+                if (conversation.getContactId() != 0) values.put("contact_id", conversation.getContactId());
+                db.insertWithOnConflict("conversations", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Moves entries saved by older versions as a SharedPreferences StringSet, once
+    private synchronized void migrateFromPreferences() {
+        if (legacyPrefs == null) return;
+        SharedPreferences prefs = context.getSharedPreferences(legacyPrefs, Context.MODE_PRIVATE);
+        Set<String> entries = prefs.getStringSet(LEGACY_KEY, null);
+        if (entries == null) return;
+
+        List<Conversation> conversations = new ArrayList<>();
+        for (String entry : entries) {
+            conversations.add(Conversation.fromEntry(entry));
+        }
+        insert(database.getWritableDatabase(), conversations);
+        prefs.edit().remove(LEGACY_KEY).apply();
+        AppLog.d(TAG, "Migrated " + conversations.size() + " conversations from preferences");
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.share_everything_project;
+
+// Latest message and unread count for one peer, as shown in the conversation list
+public class ConversationSummary {
+    private final String peer;
+    private final String lastContent;
+    private final String lastType;
+    private final long lastTimestamp;
+    private final long unreadCount;
+
+    public ConversationSummary(String peer, String lastContent, String lastType, long lastTimestamp, long unreadCount) {
+        this.peer = peer;
+        this.lastContent = lastContent;
+        this.lastType = lastType;
+        this.lastTimestamp = lastTimestamp;
+        this.unreadCount = unreadCount;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public String getLastContent() {
+        return lastContent;
+    }
+
+    public String getLastType() {
+        return lastType;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public long getUnreadCount() {
+        return unreadCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ConversationSummary{" +
+                "peer='" + peer + '\'' +
+                ", lastTimestamp=" + lastTimestamp +
+                ", unreadCount=" + unreadCount +
+                '}';
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.share_everything_project
+
+import kotlinx.serialization.SerialName
+import kotlinx.serialization.Serializable
+
+// Row returned by the conversation_summaries RPC
+@Serializable
+data class ConversationSummaryData(
+    @SerialName("peer") @JvmField val peer: String,
+    @SerialName("last_content") @JvmField val lastContent: String,
+    @SerialName("last_type") @JvmField val lastType: String,
+    @SerialName("last_timestamp") @JvmField val lastTimestamp: Long,
+    @SerialName("unread_count") @JvmField val unreadCount: Long = 0
+) {
+    fun toSummary(): ConversationSummary = ConversationSummary(
+        peer,
+        lastContent,
+        lastType,
+        lastTimestamp,
+        unreadCount
+    )
+}
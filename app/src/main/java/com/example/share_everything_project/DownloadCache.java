@@ -0,0 +1,262 @@
+package com.example.share_everything_project;
+
+import android.content.Context;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bounded on-disk LRU cache of downloaded chat files, served through the app's FileProvider.
+ * Interrupted downloads resume with an HTTP range request guarded by the object's ETag, and
+ * mutable objects are revalidated with If-None-Match. Content-addressed objects (sha256/...)
+ * never change, so a cached copy of one is used without touching the network.
+ */
+public class DownloadCache {
+    private static final String TAG = "DownloadCache";
+    // Must match the cache-path entry in res/xml/file_paths.xml
+    static final String DIRECTORY = "downloads";
+    private static final long DEFAULT_MAX_BYTES = 200L * 1024 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    private static final String ETAG_SUFFIX = ".etag";
+    private static final int CONNECT_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long maxBytes;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    // One download per URL; a second open of the same file joins the first
+    private final Map<String, CompletableFuture<File>> inFlight = new HashMap<>();
+
+    public DownloadCache(Context context) {
+        this(new File(context.getCacheDir(), DIRECTORY), DEFAULT_MAX_BYTES);
+    }
+
+    DownloadCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Completes with the local copy of url, downloading or revalidating it first if needed
+    public synchronized CompletableFuture<File> get(String url) {
+        CompletableFuture<File> existing = inFlight.get(url);
+        if (existing != null) return existing;
+
+        CompletableFuture<File> future = CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetch(url);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        inFlight.put(url, future);
+        future.whenComplete((file, error) -> {
+            synchronized (this) {
+                inFlight.remove(url);
+            }
+        });
+        return future;
+    }
+
+    private File fetch(String url) throws IOException {
+        directory.mkdirs();
+        String name = keyFor(url);
+        File file = new File(directory, name);
+        File part = new File(directory, name + PART_SUFFIX);
+        File etagFile = new File(directory, name + ETAG_SUFFIX);
+        String etag = readEtag(etagFile);
+
+        if (file.exists()) {
+            if (isImmutable(url)) {
+                AppLog.d(TAG, "Cache hit for " + name);
+                return touch(file);
+            }
+            try {
+                if (revalidate(url, etag)) {
+                    AppLog.d(TAG, "Cache hit for " + name + ", still valid");
+                    return touch(file);
+                }
+            } catch (IOException e) {
+                // Offline: a possibly stale copy beats no copy
+                AppLog.w(TAG, "Could not revalidate " + name + ", using cached copy", e);
+                return touch(file);
+            }
+            file.delete();
+            part.delete();
+            etag = null;
+        }
+
+        download(url, file, part, etagFile, etag);
+        evict(file);
+        return file;
+    }
+
+    // True if the server confirms the cached copy is current
+    private boolean revalidate(String url, String etag) throws IOException {
+        if (etag == null) return false;
+        HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setRequestProperty("If-None-Match", etag);
+            return connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void download(String url, File file, File part, File etagFile, String etag) throws IOException {
+        long offset = part.exists() && etag != null ? part.length() : 0;
+        HttpURLConnection connection = open(url);
+        try {
+            if (offset > 0) {
+                // If-Range makes the server send the whole object again if it changed meanwhile
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                connection.setRequestProperty("If-Range", etag);
+            }
+            int code = connection.getResponseCode();
+            boolean append = code == HttpURLConnection.HTTP_PARTIAL;
+            if (code == 416 && offset > 0) {
+                // The partial file is already complete or no longer matches; start over
+                part.delete();
+                etagFile.delete();
+                download(url, file, part, etagFile, null);
+                return;
+            }
+            if (code != HttpURLConnection.HTTP_OK && !append) {
+                throw new IOException("Download of " + url + " failed with HTTP " + code);
+            }
+
+            String newEtag = connection.getHeaderField("ETag");
+            if (newEtag != null) {
+                try (OutputStream out = new FileOutputStream(etagFile)) {
+                    out.write(newEtag.getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                etagFile.delete();
+            }
+            AppLog.d(TAG, (append ? "Resuming " + file.getName() + " at " + offset : "Downloading " + file.getName()));
+
+            try (InputStream in = connection.getInputStream();
+                 OutputStream out = new FileOutputStream(part, append)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (!part.renameTo(file)) {
+                throw new IOException("Could not move " + part + " into the cache");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Drops least recently used files until the cache fits, never the file just fetched
+    private synchronized void evict(File keep) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxBytes) return;
+
+        // Partial files that are still being written are not ours to delete
+        Set<String> busy = new HashSet<>();
+        for (String url : inFlight.keySet()) {
+            busy.add(keyFor(url) + PART_SUFFIX);
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxBytes) break;
+            if (file.equals(keep) || file.getName().endsWith(ETAG_SUFFIX) || busy.contains(file.getName())) continue;
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                new File(directory, stripSuffix(file.getName()) + ETAG_SUFFIX).delete();
+                AppLog.d(TAG, "Evicted " + file.getName());
+            }
+        }
+    }
+
+    private static File touch(File file) {
+        // lastModified doubles as the LRU access time
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        // Byte offsets only make sense on the identity encoding
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private static String readEtag(File etagFile) {
+        if (!etagFile.exists()) return null;
+        try (InputStream in = new FileInputStream(etagFile)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static boolean isImmutable(String url) {
+        return url.contains("/sha256/");
+    }
+
+    // Hash of the URL, keeping the extension so the FileProvider reports the right type
+    static String keyFor(String url) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest(url.getBytes(StandardCharsets.UTF_8))) {
+            key.append(String.format(Locale.US, "%02x", b));
+        }
+        String path = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot > slash && dot < path.length() - 1) {
+            key.append(path.substring(dot).toLowerCase(Locale.US));
+        }
+        return key.toString();
+    }
+
+    private static String stripSuffix(String name) {
+        return name.endsWith(PART_SUFFIX) ? name.substring(0, name.length() - PART_SUFFIX.length()) : name;
+    }
+}
@@ -1,9 +1,7 @@
 package com.example.share_everything_project;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.util.Log;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.Toast;
@@ -16,6 +14,14 @@ public class LoginActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        // Signed in before: go straight to the conversation list without inflating this screen
+        String savedUsername = ShareEverythingApp.getInstance().getSavedUsername();
+        if (savedUsername != null) {
+            openMainActivity(savedUsername);
+            return;
+        }
+
         setContentView(R.layout.activity_login);
 
         usernameEditText = findViewById(R.id.usernameEditText);
@@ -32,10 +38,14 @@ public class LoginActivity extends AppCompatActivity {
     }
 
     private void handleSuccessfulLogin(String username) {
-        // Save username to SharedPreferences
-        SharedPreferences prefs = getSharedPreferences("ShareHubPrefs", MODE_PRIVATE);
-        prefs.edit().putString("username", username).apply();
+        // Save username and start loading the conversation list while MainActivity starts
+        ShareEverythingApp app = ShareEverythingApp.getInstance();
+        app.saveUsername(username);
+        app.warmUp(username);
+        openMainActivity(username);
+    }
 
+    private void openMainActivity(String username) {
         // Start MainActivity
         Intent intent = new Intent(LoginActivity.this, MainActivity.class);
         intent.putExtra("username", username);
@@ -46,7 +56,7 @@ public class LoginActivity extends AppCompatActivity {
             intent.setData(getIntent().getData());
         }
         
-        Log.d("LoginActivity", "Passing username: " + username);
+        AppLog.d("LoginActivity", "Passing username: " + username);
         startActivity(intent);
         finish();
     }
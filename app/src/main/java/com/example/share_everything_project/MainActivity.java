@@ -3,21 +3,15 @@ package com.example.share_everything_project;
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.ContactsContract;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
@@ -25,13 +19,26 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
+import androidx.lifecycle.LifecycleOwnerKt;
 import androidx.appcompat.widget.Toolbar;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import kotlinx.coroutines.CoroutineScope;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.ExecutorsKt;
 
 import org.json.JSONObject;
 import org.json.JSONArray;
@@ -42,11 +49,28 @@ import com.google.zxing.integration.android.IntentResult;
 public class MainActivity extends AppCompatActivity {
     private static final int PERMISSIONS_REQUEST_READ_CONTACTS = 100;
     private static final int SCAN_QR_CODE = 1;
-    private ListView conversationListView;
-    private ArrayList<String> conversationList;
+    private static final Executor IO = ExecutorsKt.asExecutor(Dispatchers.getIO());
+    // Most recent activity first; conversations without messages keep the order they were added in
+    private static final Comparator<Conversation> ORDER = (a, b) -> {
+        int result = Long.compare(b.getLastTimestamp(), a.getLastTimestamp());
+        return result != 0 ? result : Long.compare(a.getId(), b.getId());
+    };
+
+    private RecyclerView conversationRecyclerView;
+    // Sorted by ORDER and indexed by name and phone contact id; only touched on the main thread
+    private final List<Conversation> conversations = new ArrayList<>();
+    private final Map<String, Conversation> conversationsByName = new HashMap<>();
+    private final Map<Long, Conversation> conversationsByContactId = new HashMap<>();
     private String currentUsername;
-    private ArrayAdapter<String> adapter;
+    private ConversationAdapter adapter;
+    private boolean submitPending;
+    private boolean conversationsLoaded;
+    private boolean summariesPending;
+    private boolean reportedFullyDrawn;
+    private RealtimeMultiplexer.Registration realtimeRegistration;
+    private RealtimeMultiplexer.Registration reconnectRegistration;
     private Toolbar toolbar;
+    private ContactImporter contactImporter;
 
     private void initializeViews() {
         // Initialize toolbar
@@ -56,8 +80,8 @@ public class MainActivity extends AppCompatActivity {
             getSupportActionBar().setTitle("ShareHub Pro");
         }
 
-        // Initialize ListView
-        conversationListView = findViewById(R.id.conversationListView);
+        // Initialize RecyclerView
+        conversationRecyclerView = findViewById(R.id.conversationRecyclerView);
     }
 
     @Override
@@ -76,21 +100,163 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        // Set up ListView and adapter
-        conversationList = new ArrayList<>();
-        adapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, conversationList);
-        conversationListView.setAdapter(adapter);
+        contactImporter = new ContactImporter(this);
+
+        // Set up RecyclerView and adapter
+        adapter = new ConversationAdapter(this::openConversation);
+        conversationRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        conversationRecyclerView.setHasFixedSize(true);
+        conversationRecyclerView.setAdapter(adapter);
 
         // Load saved conversations
         loadConversations();
 
-        // Set up click listeners
-        setupClickListeners();
-
         // Handle deep link
         handleDeepLink();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // New messages update previews and re-sort the list while it is visible
+        RealtimeMultiplexer realtime = ShareEverythingApp.getInstance().getRealtime(currentUsername);
+        realtimeRegistration = realtime.addGlobalListener(message -> runOnUiThread(() -> onRealtimeMessage(message)));
+        // Messages that arrived while realtime was down never reached the listener above
+        reconnectRegistration = realtime.addReconnectListener(() -> runOnUiThread(this::refreshConversationSummaries));
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Unread counts change while a chat is open, so refresh whenever we come back
+        refreshConversationSummaries();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (contactImporter != null) {
+            contactImporter.cancel();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (realtimeRegistration != null) {
+            realtimeRegistration.remove();
+            realtimeRegistration = null;
+        }
+        if (reconnectRegistration != null) {
+            reconnectRegistration.remove();
+            reconnectRegistration = null;
+        }
+    }
+
+    private void refreshConversationSummaries() {
+        // Summaries are merged into the saved list, so wait until it has been loaded
+        if (!conversationsLoaded) {
+            summariesPending = true;
+            return;
+        }
+        String username = currentUsername;
+        // The server request is cancelled with the activity's lifecycleScope
+        CoroutineScope scope = LifecycleOwnerKt.getLifecycleScope(this);
+        CompletableFuture.supplyAsync(() -> {
+            // Cached summaries first so the list fills in immediately, then the server's
+            List<ConversationSummary> prefetched = awaitPrefetch(
+                ShareEverythingApp.getInstance().takePrefetchedSummaries(username));
+            List<ConversationSummary> cached = prefetched != null ? prefetched
+                : MessageStore.getInstance(getApplicationContext()).loadConversationSummaries(username);
+            runOnUiThread(() -> applySummaries(cached));
+            return SupabaseClientProvider.INSTANCE.getClient();
+        }, IO).thenCompose(client -> SupabaseWrapper.fetchConversationSummariesAsync(scope, client, username))
+            .whenComplete((remote, error) -> {
+                if (error != null) {
+                    AppLog.e("MainActivity", "Error loading conversation summaries", error);
+                    return;
+                }
+                runOnUiThread(() -> applySummaries(remote));
+            });
+    }
+
+    private void applySummaries(List<ConversationSummary> latest) {
+        if (isFinishing() || isDestroyed()) return;
+
+        MessageStore store = MessageStore.getInstance(getApplicationContext());
+        List<Conversation> added = new ArrayList<>();
+        for (ConversationSummary summary : latest) {
+            Conversation existing = conversationsByName.get(summary.getPeer());
+            // Anyone who messaged us shows up even if they were never added by hand
+            if (existing == null) {
+                existing = Conversation.appUser(summary.getPeer());
+                added.add(existing);
+            }
+            Conversation updated = existing.withSummary(summary);
+            // Read in a chat just closed; the cache and the server may not know yet
+            if (updated != existing
+                    && summary.getLastTimestamp() <= store.notedReadTimestamp(currentUsername, summary.getPeer())) {
+                updated = updated.withUnread(0);
+            }
+            // Unchanged when the summary is older than what realtime already showed
+            if (updated != existing) put(updated);
+        }
+        scheduleSubmit();
+        conversationStore().addAll(added);
+    }
+
+    private void onRealtimeMessage(Message message) {
+        if (isDestroyed()) return;
+
+        boolean incoming = message.getReceiver().equals(currentUsername)
+            && !message.getSender().equals(currentUsername);
+        String peer = incoming ? message.getSender() : message.getReceiver();
+        Conversation existing = conversationsByName.get(peer);
+        if (existing == null) {
+            existing = Conversation.appUser(peer);
+            conversationStore().add(existing);
+        }
+        put(existing.withMessage(message, incoming));
+        scheduleSubmit();
+    }
+
+    // Inserts or replaces a conversation at its sorted position, without re-sorting the list
+    private void put(Conversation conversation) {
+        Conversation previous = conversationsByName.get(conversation.getName());
+        if (previous != null) remove(previous);
+        conversationsByName.put(conversation.getName(), conversation);
+        if (conversation.getContactId() != 0) {
+            conversationsByContactId.put(conversation.getContactId(), conversation);
+        }
+        int position = Collections.binarySearch(conversations, conversation, ORDER);
+        conversations.add(position < 0 ? -position - 1 : position, conversation);
+    }
+
+    private void remove(Conversation conversation) {
+        conversationsByName.remove(conversation.getName());
+        if (conversation.getContactId() != 0) {
+            conversationsByContactId.remove(conversation.getContactId());
+        }
+        conversations.remove(Collections.binarySearch(conversations, conversation, ORDER));
+    }
+
+    // Coalesces bursts of updates into one diff per frame
+    private void scheduleSubmit() {
+        if (submitPending) return;
+        submitPending = true;
+        conversationRecyclerView.postOnAnimation(() -> {
+            submitPending = false;
+            boolean firstLoad = conversationsLoaded && !reportedFullyDrawn;
+            adapter.submitList(new ArrayList<>(conversations), () -> {
+                // Startup ends once the saved list is on screen; measured by the macrobenchmark
+                if (firstLoad && !reportedFullyDrawn) {
+                    reportedFullyDrawn = true;
+                    reportFullyDrawn();
+                }
+            });
+        });
+    }
+
     private void handleDeepLink() {
         Intent intent = getIntent();
         if (intent != null && intent.getAction() != null && 
@@ -100,7 +266,7 @@ public class MainActivity extends AppCompatActivity {
                 "user".equals(data.getHost())) {
                 String username = data.getLastPathSegment();
                 if (username != null && !username.isEmpty()) {
-                    Log.d("MainActivity", "Processing deep link for user: " + username);
+                    AppLog.d("MainActivity", "Processing deep link for user: " + username);
                     addToConversations(username);
                 }
             }
@@ -135,6 +301,15 @@ public class MainActivity extends AppCompatActivity {
         } else if (id == R.id.action_scan_qr) {
             scanQRCode();
             return true;
+        } else if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
+        } else if (id == R.id.action_logout) {
+            // Forget the saved user so the next launch asks again
+            ShareEverythingApp.getInstance().signOut();
+            startActivity(new Intent(this, LoginActivity.class));
+            finish();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -153,138 +328,149 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void importContacts() {
-        try {
-            // Query for contacts with phone numbers
-            Cursor cursor = getContentResolver().query(
-                ContactsContract.CommonDataKinds.Phone.CONTENT_URI,
-                new String[]{
-                    ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME,
-                    ContactsContract.CommonDataKinds.Phone.NUMBER
-                },
-                null,
-                null,
-                ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME + " ASC"
-            );
-
-            if (cursor != null && cursor.moveToFirst()) {
-                // Get column indices
-                int nameColumnIndex = cursor.getColumnIndex(
-                    ContactsContract.CommonDataKinds.Phone.DISPLAY_NAME);
-                int numberColumnIndex = cursor.getColumnIndex(
-                    ContactsContract.CommonDataKinds.Phone.NUMBER);
-
-                // Verify column indices are valid
-                if (nameColumnIndex < 0 || numberColumnIndex < 0) {
-                    Log.e("MainActivity", "Required columns not found in cursor");
-                    Toast.makeText(this, "Error: Could not access contact information", 
-                        Toast.LENGTH_SHORT).show();
-                    cursor.close();
-                    return;
+        // The cursor is read off the main thread; batches are merged here as they arrive
+        boolean started = contactImporter.start(new ContactImporter.Listener() {
+            @Override
+            public void onBatch(List<Conversation> contacts) {
+                if (isDestroyed()) return;
+                List<Conversation> changed = new ArrayList<>();
+                for (Conversation contact : contacts) {
+                    Conversation existing = conversationsByContactId.get(contact.getContactId());
+                    if (existing == null) {
+                        // Contacts saved before ids were kept are matched by name once
+                        Conversation byName = conversationsByName.get(contact.getName());
+                        if (byName != null && !byName.isAppUser() && byName.getContactId() == 0) existing = byName;
+                    }
+                    // Names are unique in the list; a contact whose name another entry has is skipped
+                    Conversation holder = conversationsByName.get(contact.getName());
+                    if (holder != null && holder != existing) continue;
+
+                    if (existing == null) {
+                        put(contact);
+                        changed.add(contact);
+                    } else if (existing.differsFromContact(contact)) {
+                        // Renamed or new number: the same row, keeping its preview and position id
+                        Conversation updated = existing.withContact(contact);
+                        remove(existing);
+                        put(updated);
+                        changed.add(updated);
+                    }
                 }
+                scheduleSubmit();
+                conversationStore().saveContacts(changed);
+            }
 
-                do {
-                    String name = cursor.getString(nameColumnIndex);
-                    String phoneNumber = cursor.getString(numberColumnIndex);
-
-                    // Skip if either name or number is null
-                    if (name == null || phoneNumber == null) {
-                        continue;
-                    }
+            @Override
+            public void onRemoved(List<Long> contactIds) {
+                if (isDestroyed()) return;
+                for (long contactId : contactIds) {
+                    Conversation existing = conversationsByContactId.get(contactId);
+                    if (existing != null) remove(existing);
+                }
+                scheduleSubmit();
+                conversationStore().removeContacts(contactIds);
+            }
 
-                    // Format the contact string with phone number
-                    String contactEntry = name + "|" + phoneNumber;
-                    
-                    // Check if contact already exists
-                    if (!conversationList.contains(contactEntry)) {
-                        conversationList.add(contactEntry);
-                        Log.d("MainActivity", "Added contact: " + contactEntry);
-                    }
-                } while (cursor.moveToNext());
-
-                cursor.close();
-                
-                // Update UI
-                adapter.notifyDataSetChanged();
-                
-                // Save the updated conversations list
-                saveConversations();
-                
-                Toast.makeText(this, "Contacts imported successfully", Toast.LENGTH_SHORT).show();
-            } else {
-                if (cursor != null) {
-                    cursor.close();
+            @Override
+            public void onFinished(int total, boolean incremental) {
+                if (isDestroyed()) return;
+                AppLog.d("MainActivity", "Contact import finished, " + total + " contacts read");
+                if (total > 0) {
+                    Toast.makeText(MainActivity.this, "Contacts imported successfully", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(MainActivity.this, incremental ? "Contacts are up to date" : "No contacts found",
+                        Toast.LENGTH_SHORT).show();
                 }
-                Toast.makeText(this, "No contacts found", Toast.LENGTH_SHORT).show();
             }
-        } catch (Exception e) {
-            Log.e("MainActivity", "Error importing contacts", e);
-            Toast.makeText(this, "Error importing contacts: " + e.getMessage(), 
-                Toast.LENGTH_SHORT).show();
-        }
-    }
 
-    private void setupClickListeners() {
-        conversationListView.setOnItemClickListener((parent, view, position, id) -> {
-            String userInfo = conversationList.get(position);
-            String[] parts = userInfo.split("\\|");
-            String displayName = parts[0];
-            String additionalInfo = parts.length > 1 ? parts[1] : "";
-
-            Intent intent = new Intent(MainActivity.this, ChatActivity.class);
-            intent.putExtra("username", currentUsername);
-            intent.putExtra("otherUser", displayName);
-            
-            // Check if this is an app user or a phone contact
-            if (additionalInfo.equals("app_user")) {
-                intent.putExtra("isAppUser", true);
-            } else {
-                intent.putExtra("isAppUser", false);
-                intent.putExtra("phoneNumber", additionalInfo);
+            @Override
+            public void onFailed(Exception error) {
+                if (isDestroyed()) return;
+                Toast.makeText(MainActivity.this, "Error importing contacts: " + error.getMessage(),
+                    Toast.LENGTH_SHORT).show();
             }
-            
-            startActivity(intent);
         });
+        if (!started) {
+            Toast.makeText(this, "Contact import already in progress", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void openConversation(Conversation conversation) {
+        Intent intent = new Intent(MainActivity.this, ChatActivity.class);
+        intent.putExtra("username", currentUsername);
+        intent.putExtra("otherUser", conversation.getName());
+
+        // Check if this is an app user or a phone contact
+        intent.putExtra("isAppUser", conversation.isAppUser());
+        if (!conversation.isAppUser()) {
+            intent.putExtra("phoneNumber", conversation.getPhoneNumber());
+        }
+
+        startActivity(intent);
     }
 
     private void addToConversations(String username) {
-        Log.d("MainActivity", "Adding user to conversations: " + username);
+        AppLog.d("MainActivity", "Adding user to conversations: " + username);
         
         // Check if already in conversations
-        String userEntry = username + "|app_user";
-        if (conversationList.contains(userEntry)) {
+        if (conversationsByName.containsKey(username)) {
             Toast.makeText(this, username + " is already in your conversations", 
                 Toast.LENGTH_SHORT).show();
             return;
         }
 
-        // Add to conversations with app_user flag
-        conversationList.add(userEntry);
+        // Add to conversations as an app user
+        Conversation conversation = Conversation.appUser(username);
+        put(conversation);
         
         // Update UI
         runOnUiThread(() -> {
-            adapter.notifyDataSetChanged();
-            Log.d("MainActivity", "Conversation list size: " + conversationList.size());
+            scheduleSubmit();
+            AppLog.d("MainActivity", "Conversation list size: " + conversations.size());
             Toast.makeText(this, username + " added to conversations", Toast.LENGTH_SHORT).show();
         });
 
         // Save conversations
-        saveConversations();
+        conversationStore().add(conversation);
     }
 
-    private void saveConversations() {
-        SharedPreferences prefs = getSharedPreferences("ShareHubPrefs", MODE_PRIVATE);
-        Set<String> conversationSet = new HashSet<>(conversationList);
-        prefs.edit().putStringSet("conversations", conversationSet).apply();
-        Log.d("MainActivity", "Saved " + conversationSet.size() + " conversations");
+    // Result of a startup prefetch, or null when there was none or it failed
+    private static <T> T awaitPrefetch(Future<T> prefetch) {
+        if (prefetch == null) return null;
+        try {
+            return prefetch.get();
+        } catch (Exception e) {
+            AppLog.e("MainActivity", "Startup prefetch failed", e);
+            return null;
+        }
+    }
+
+    private ConversationStore conversationStore() {
+        return ConversationStore.getInstance(this);
     }
 
     private void loadConversations() {
-        SharedPreferences prefs = getSharedPreferences("ShareHubPrefs", MODE_PRIVATE);
-        Set<String> savedConversations = prefs.getStringSet("conversations", new HashSet<>());
-        conversationList.clear();
-        conversationList.addAll(savedConversations);
-        adapter.notifyDataSetChanged();
-        Log.d("MainActivity", "Loaded " + conversationList.size() + " conversations");
+        CompletableFuture.supplyAsync(() -> {
+            List<Conversation> prefetched = awaitPrefetch(
+                ShareEverythingApp.getInstance().takePrefetchedConversations());
+            return prefetched != null ? prefetched : conversationStore().loadAll();
+        }, IO).thenAccept(saved -> runOnUiThread(() -> {
+            if (isDestroyed()) return;
+            for (Conversation conversation : saved) {
+                // Entries added meanwhile (deep link, realtime) already carry newer state
+                if (!conversationsByName.containsKey(conversation.getName())) {
+                    put(conversation);
+                }
+            }
+            scheduleSubmit();
+            AppLog.d("MainActivity", "Loaded " + conversations.size() + " conversations");
+
+            conversationsLoaded = true;
+            if (summariesPending) {
+                summariesPending = false;
+                refreshConversationSummaries();
+            }
+        }));
     }
 
     private void showMyQRCode() {
@@ -294,7 +480,7 @@ public class MainActivity extends AppCompatActivity {
             qrData.put("type", "contact_add");
             qrData.put("username", currentUsername);
         } catch (Exception e) {
-            Log.e("MainActivity", "Error creating QR data", e);
+            AppLog.e("MainActivity", "Error creating QR data", e);
             Toast.makeText(this, "Error creating QR code", Toast.LENGTH_SHORT).show();
             return;
         }
@@ -394,7 +580,7 @@ public class MainActivity extends AppCompatActivity {
                     return;
                 }
             } catch (Exception e) {
-                Log.d("MainActivity", "QR content is not in JSON format, trying deep link format");
+                AppLog.d("MainActivity", "QR content is not in JSON format, trying deep link format");
             }
 
             if (qrContent.startsWith("sharehubpro://user/")) {
@@ -407,7 +593,7 @@ public class MainActivity extends AppCompatActivity {
 
             Toast.makeText(this, "Invalid QR code format", Toast.LENGTH_SHORT).show();
         } catch (Exception e) {
-            Log.e("MainActivity", "Error processing QR code", e);
+            AppLog.e("MainActivity", "Error processing QR code", e);
             Toast.makeText(this, "Error processing QR code: " + e.getMessage(), Toast.LENGTH_SHORT).show();
         }
     }
@@ -1,13 +1,24 @@
 package com.example.share_everything_project;
 
 public class Message {
+    // Delivery state of a message we sent; null for messages read from the server
+    public static final String SEND_STATE_PENDING = "pending";
+    public static final String SEND_STATE_SENT = "sent";
+    public static final String SEND_STATE_FAILED = "failed";
+    // Rejected by the server too many times; no longer retried on its own, see MessageOutbox.retry
+    public static final String SEND_STATE_UNDELIVERABLE = "undeliverable";
+
     private String id;
+    private String clientId;
+    private String sendState;
     private String sender;
     private String receiver;
     private String content;
     private String type;
     private long timestamp;
     private String createdAt;
+    // Small preview image uploaded next to image and video files; null for everything else
+    private String thumbnailUrl;
 
     // Constructor for new messages (without id and createdAt)
     public Message(String sender, String receiver, String content, String type, long timestamp) {
@@ -29,6 +40,31 @@ public class Message {
         this.createdAt = createdAt;
     }
 
+    // Constructor for messages with a client-generated idempotency key
+    public Message(String id, String clientId, String sender, String receiver, String content, String type,
+                   long timestamp, String createdAt, String sendState) {
+        this(id, clientId, sender, receiver, content, type, timestamp, createdAt, sendState, null);
+    }
+
+    // Every field; rows decoded from the server or read from the cache are built with this once
+    public Message(String id, String clientId, String sender, String receiver, String content, String type,
+                   long timestamp, String createdAt, String sendState, String thumbnailUrl) {
+        this(id, sender, receiver, content, type, timestamp, createdAt);
+        this.clientId = clientId;
+        this.sendState = sendState;
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    public Message withSendState(String sendState) {
+        return new Message(id, clientId, sender, receiver, content, type, timestamp, createdAt, sendState,
+            thumbnailUrl);
+    }
+
+    public Message withThumbnailUrl(String thumbnailUrl) {
+        return new Message(id, clientId, sender, receiver, content, type, timestamp, createdAt, sendState,
+            thumbnailUrl);
+    }
+
     public String getId() {
         return id;
     }
@@ -57,16 +93,31 @@ public class Message {
         return createdAt;
     }
 
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getSendState() {
+        return sendState;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
     @Override
     public String toString() {
         return "Message{" +
                 "id='" + id + '\'' +
+                ", clientId='" + clientId + '\'' +
                 ", sender='" + sender + '\'' +
                 ", receiver='" + receiver + '\'' +
                 ", content='" + content + '\'' +
                 ", type='" + type + '\'' +
                 ", timestamp=" + timestamp +
                 ", createdAt='" + createdAt + '\'' +
+                ", sendState='" + sendState + '\'' +
+                ", thumbnailUrl='" + thumbnailUrl + '\'' +
                 '}';
     }
 } 
\ No newline at end of file
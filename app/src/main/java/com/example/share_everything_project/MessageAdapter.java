@@ -5,38 +5,77 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
+
+public class MessageAdapter extends ListAdapter<Message, MessageAdapter.MessageViewHolder> {
+    // Diffs run on AsyncListDiffer's background executor, so only changed rows are rebound
+    private static final DiffUtil.ItemCallback<Message> DIFF_CALLBACK = new DiffUtil.ItemCallback<Message>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            // An optimistic message and its server echo share a client id, so the same stable id
+            return getStableId(oldItem) == getStableId(newItem)
+                || (oldItem.getTimestamp() == newItem.getTimestamp()
+                    && oldItem.getSender().equals(newItem.getSender())
+                    && oldItem.getContent().equals(newItem.getContent()));
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Message oldItem, @NonNull Message newItem) {
+            return Objects.equals(oldItem.getId(), newItem.getId())
+                && oldItem.getContent().equals(newItem.getContent())
+                && oldItem.getType().equals(newItem.getType())
+                && oldItem.getTimestamp() == newItem.getTimestamp()
+                && Objects.equals(oldItem.getSendState(), newItem.getSendState())
+                && Objects.equals(oldItem.getThumbnailUrl(), newItem.getThumbnailUrl());
+        }
+    };
 
-public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
-    private List<Message> messages = new ArrayList<>();
     private final Context context;
     private final String currentUserId;
     private final SimpleDateFormat dateFormat;
+    private final int thumbnailSize;
     private OnFileClickListener listener;
+    private OnRetryClickListener retryListener;
 
     public interface OnFileClickListener {
         void onFileOpen(Message message);
     }
 
+    // Tapping a message the outbox gave up on sends it again
+    public interface OnRetryClickListener {
+        void onRetry(Message message);
+    }
+
     public MessageAdapter(Context context, String currentUserId) {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
         this.context = context;
         this.currentUserId = currentUserId;
         this.dateFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+        this.thumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.message_thumbnail_size);
     }
 
     public void setOnFileClickListener(OnFileClickListener listener) {
         this.listener = listener;
     }
 
+    public void setOnRetryClickListener(OnRetryClickListener retryListener) {
+        this.retryListener = retryListener;
+    }
+
     @NonNull
     @Override
     public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -46,12 +85,31 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
 
     @Override
     public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
-        Message message = messages.get(position);
+        Message message = getItem(position);
         boolean isCurrentUser = message.getSender().equals(currentUserId);
 
         // Set message content
         holder.messageText.setText(message.getContent());
-        holder.timestampText.setText(dateFormat.format(new Date(message.getTimestamp())));
+        String time = dateFormat.format(new Date(message.getTimestamp()));
+        if (Message.SEND_STATE_PENDING.equals(message.getSendState())) {
+            holder.timestampText.setText(time + " · Sending");
+        } else if (Message.SEND_STATE_FAILED.equals(message.getSendState())) {
+            holder.timestampText.setText(time + " · Not sent, will retry");
+        } else if (Message.SEND_STATE_UNDELIVERABLE.equals(message.getSendState())) {
+            holder.timestampText.setText(time + " · Not sent, tap to retry");
+        } else {
+            holder.timestampText.setText(time);
+        }
+        if (Message.SEND_STATE_UNDELIVERABLE.equals(message.getSendState())) {
+            holder.messageText.setOnClickListener(v -> {
+                if (retryListener != null) {
+                    retryListener.onRetry(message);
+                }
+            });
+        } else {
+            holder.messageText.setOnClickListener(null);
+            holder.messageText.setClickable(false);
+        }
 
         // Set message alignment and style
         RelativeLayout.LayoutParams params = (RelativeLayout.LayoutParams) holder.messageContainer.getLayoutParams();
@@ -83,22 +141,76 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
         } else {
             holder.fileButton.setVisibility(View.GONE);
         }
+
+        if ("file".equals(message.getType()) && message.getThumbnailUrl() != null) {
+            holder.thumbnailImage.setVisibility(View.VISIBLE);
+            holder.thumbnailImage.setOnClickListener(v -> {
+                if (listener != null) {
+                    listener.onFileOpen(message);
+                }
+            });
+            // Decoded at the view's exact size and cached in memory and on disk, so scrolling back never re-downloads
+            Glide.with(holder.thumbnailImage)
+                .load(message.getThumbnailUrl())
+                .override(thumbnailSize, thumbnailSize)
+                .centerCrop()
+                .diskCacheStrategy(DiskCacheStrategy.ALL)
+                .placeholder(R.drawable.ic_file_image)
+                .into(holder.thumbnailImage);
+        } else {
+            Glide.with(holder.thumbnailImage).clear(holder.thumbnailImage);
+            holder.thumbnailImage.setOnClickListener(null);
+            holder.thumbnailImage.setVisibility(View.GONE);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(@NonNull MessageViewHolder holder) {
+        super.onViewRecycled(holder);
+        // Releases the bitmap back to Glide's pool instead of holding it in an off-screen row
+        Glide.with(holder.thumbnailImage).clear(holder.thumbnailImage);
     }
 
     @Override
-    public int getItemCount() {
-        return messages.size();
+    public long getItemId(int position) {
+        return getStableId(getItem(position));
     }
 
-    public void setMessages(List<Message> newMessages) {
-        this.messages = newMessages;
-        notifyDataSetChanged();
+    // A message sent from this device keeps its client id from the optimistic row through the
+    // server echo, so that comes first; it maps to negative ids, which server ids never are.
+    // Messages from elsewhere use their numeric server id, and the content hash is the last resort
+    static long getStableId(Message message) {
+        String clientId = message.getClientId();
+        if (clientId != null && !clientId.isEmpty()) {
+            return hash64(clientId) | Long.MIN_VALUE;
+        }
+        String id = message.getId();
+        if (id != null && !id.isEmpty()) {
+            try {
+                return Long.parseLong(id);
+            } catch (NumberFormatException ignored) {
+                // Fall through to the content hash
+            }
+        }
+        long hash = Objects.hash(message.getSender(), message.getTimestamp(), message.getContent());
+        return -Math.abs(hash) - 1;
+    }
+
+    // 64-bit FNV-1a; String.hashCode's 32 bits collide too easily across a long history
+    private static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
     }
 
     static class MessageViewHolder extends RecyclerView.ViewHolder {
         TextView messageText;
         TextView timestampText;
         ImageButton fileButton;
+        ImageView thumbnailImage;
         LinearLayout messageContainer;
 
         MessageViewHolder(View itemView) {
@@ -107,6 +219,7 @@ public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageV
             messageText = itemView.findViewById(R.id.messageText);
             timestampText = itemView.findViewById(R.id.timestampText);
             fileButton = itemView.findViewById(R.id.fileButton);
+            thumbnailImage = itemView.findViewById(R.id.thumbnailImage);
         }
     }
 } 
\ No newline at end of file
@@ -11,5 +11,35 @@ data class MessageData(
     @SerialName("content") @JvmField val content: String,
     @SerialName("type") @JvmField val type: String,
     @SerialName("timestamp") @JvmField val timestamp: Long,
-    @SerialName("created_at") @JvmField val createdAt: String? = null
-) 
\ No newline at end of file
+    @SerialName("created_at") @JvmField val createdAt: String? = null,
+    @SerialName("client_id") @JvmField val clientId: String? = null,
+    @SerialName("thumbnail_url") @JvmField val thumbnailUrl: String? = null
+) {
+    fun toMessage(): Message = Message(
+        id?.toString(),
+        clientId,
+        sender,
+        receiver,
+        content,
+        type,
+        timestamp,
+        createdAt,
+        null,
+        thumbnailUrl
+    )
+
+    companion object {
+        // Outgoing rows leave id unset so the database assigns it
+        @JvmStatic
+        fun fromMessage(message: Message): MessageData = MessageData(
+            sender = message.sender,
+            receiver = message.receiver,
+            content = message.content,
+            type = message.type,
+            timestamp = message.timestamp,
+            createdAt = message.createdAt,
+            clientId = message.clientId,
+            thumbnailUrl = message.thumbnailUrl
+        )
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.share_everything_project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Timestamp-ordered message collection with O(1) duplicate checks by server id,
+ * client idempotency key, or sender/timestamp/content.
+ * Messages are inserted with a binary search instead of re-sorting the whole list,
+ * and every mutation is reported to the listener as a positional change.
+ * Not thread-safe: ChatViewModel only touches it from the main thread.
+ */
+public class MessageList {
+
+    public interface Listener {
+        void onInserted(int position, int count);
+        void onRemoved(int position, int count);
+        void onChanged(int position);
+    }
+
+    private final List<Message> items = new ArrayList<>();
+    // Server rows by id, plus every message by client id and sender/timestamp/content so an
+    // optimistic local message can be matched with its server echo
+    private final Map<String, Message> byId = new HashMap<>();
+    private final Map<String, Message> byContent = new HashMap<>();
+    private final Map<String, Message> byClientId = new HashMap<>();
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public Message get(int position) {
+        return items.get(position);
+    }
+
+    public Message first() {
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    public Message last() {
+        return items.isEmpty() ? null : items.get(items.size() - 1);
+    }
+
+    public List<Message> snapshot() {
+        return Collections.unmodifiableList(new ArrayList<>(items));
+    }
+
+    public boolean contains(Message message) {
+        return (hasId(message) && byId.containsKey(message.getId()))
+            || (hasClientId(message) && byClientId.containsKey(message.getClientId()))
+            || byContent.containsKey(contentKey(message));
+    }
+
+    // Returns false when the message was already present
+    public boolean add(Message message) {
+        if (hasId(message) && byId.containsKey(message.getId())) {
+            return false;
+        }
+
+        Message existing = hasClientId(message) ? byClientId.get(message.getClientId()) : null;
+        if (existing == null) {
+            existing = byContent.get(contentKey(message));
+        }
+        if (existing != null) {
+            // The server echo, or a new send state, replaces an optimistic message in place
+            if (!hasId(existing)
+                    && (hasId(message) || !Objects.equals(existing.getSendState(), message.getSendState()))) {
+                int position = indexOf(existing);
+                items.set(position, message);
+                unindex(existing);
+                index(message);
+                if (listener != null) listener.onChanged(position);
+            }
+            return false;
+        }
+
+        int position = insertionPoint(message);
+        items.add(position, message);
+        index(message);
+        if (listener != null) listener.onInserted(position, 1);
+        return true;
+    }
+
+    // Adds a batch, coalescing consecutive inserts into range notifications; returns how many were new
+    public int addAll(List<Message> messages) {
+        int added = 0;
+        if (!messages.isEmpty() && isSortedAfter(messages, last())) {
+            // Fast path for a page of newer messages: a single range insert at the end
+            int start = items.size();
+            for (Message message : messages) {
+                if (contains(message)) {
+                    // Flush pending inserts before a possible in-place replacement
+                    notifyInserted(start, items.size() - start);
+                    add(message);
+                    start = items.size();
+                    continue;
+                }
+                items.add(message);
+                index(message);
+                added++;
+            }
+            notifyInserted(start, items.size() - start);
+            return added;
+        }
+        if (!messages.isEmpty() && isSortedBefore(messages, first())) {
+            // Fast path for a page of older messages: a single range insert at the start
+            List<Message> fresh = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                if (!contains(message)) {
+                    fresh.add(message);
+                    index(message);
+                }
+            }
+            items.addAll(0, fresh);
+            notifyInserted(0, fresh.size());
+            return fresh.size();
+        }
+        for (Message message : messages) {
+            if (add(message)) added++;
+        }
+        return added;
+    }
+
+    public void removeFirst(int count) {
+        count = Math.min(count, items.size());
+        if (count <= 0) return;
+        List<Message> removed = items.subList(0, count);
+        for (Message message : removed) unindex(message);
+        removed.clear();
+        if (listener != null) listener.onRemoved(0, count);
+    }
+
+    public void removeLast(int count) {
+        count = Math.min(count, items.size());
+        if (count <= 0) return;
+        int start = items.size() - count;
+        List<Message> removed = items.subList(start, items.size());
+        for (Message message : removed) unindex(message);
+        removed.clear();
+        if (listener != null) listener.onRemoved(start, count);
+    }
+
+    public void clear() {
+        int count = items.size();
+        items.clear();
+        byId.clear();
+        byContent.clear();
+        byClientId.clear();
+        if (count > 0 && listener != null) listener.onRemoved(0, count);
+    }
+
+    private void notifyInserted(int position, int count) {
+        if (count > 0 && listener != null) listener.onInserted(position, count);
+    }
+
+    // Position after every message that sorts at or before the new one
+    private int insertionPoint(Message message) {
+        int size = items.size();
+        if (size == 0 || compare(items.get(size - 1), message) <= 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(items.get(mid), message) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int indexOf(Message message) {
+        int position = insertionPoint(message) - 1;
+        // Walk back over messages sharing the same sort key
+        while (position >= 0 && items.get(position) != message) {
+            position--;
+        }
+        return position;
+    }
+
+    private boolean isSortedAfter(List<Message> messages, Message anchor) {
+        Message previous = anchor;
+        for (Message message : messages) {
+            if (previous != null && compare(previous, message) > 0) return false;
+            previous = message;
+        }
+        return true;
+    }
+
+    private boolean isSortedBefore(List<Message> messages, Message anchor) {
+        if (anchor == null || !isSortedAfter(messages, null)) return false;
+        return compare(messages.get(messages.size() - 1), anchor) < 0;
+    }
+
+    private void index(Message message) {
+        if (hasId(message)) byId.put(message.getId(), message);
+        if (hasClientId(message)) byClientId.put(message.getClientId(), message);
+        byContent.put(contentKey(message), message);
+    }
+
+    private void unindex(Message message) {
+        if (hasId(message)) byId.remove(message.getId());
+        if (hasClientId(message)) byClientId.remove(message.getClientId());
+        byContent.remove(contentKey(message));
+    }
+
+    // Orders by timestamp, then by numeric server id; messages without an id go last
+    static int compare(Message m1, Message m2) {
+        int result = Long.compare(m1.getTimestamp(), m2.getTimestamp());
+        if (result != 0) return result;
+        return Long.compare(numericId(m1), numericId(m2));
+    }
+
+    static long numericId(Message message) {
+        if (!hasId(message)) return Long.MAX_VALUE;
+        try {
+            return Long.parseLong(message.getId());
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static boolean hasId(Message message) {
+        return message.getId() != null && !message.getId().isEmpty();
+    }
+
+    private static boolean hasClientId(Message message) {
+        return message.getClientId() != null && !message.getClientId().isEmpty();
+    }
+
+    private static String contentKey(Message message) {
+        return message.getSender() + '\u0000' + message.getTimestamp() + '\u0000' + message.getContent();
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.share_everything_project;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import io.github.jan.supabase.exceptions.RestException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue for outgoing messages. Messages are written to the OutboxStore first, then
+ * inserted in batches: everything sent within a short window (up to MAX_BATCH_SIZE rows)
+ * goes out in one request. Each message carries a client-generated id that the server treats
+ * as an idempotency key, so replaying a batch after a failure never duplicates rows.
+ * Failed batches are retried with backoff and as soon as the network comes back. A message the
+ * server rejects MAX_ATTEMPTS times is set aside as undeliverable so it stops holding up the
+ * queue; after a rejection messages go out one at a time until the bad one is found.
+ */
+public class MessageOutbox {
+    private static final String TAG = "MessageOutbox";
+    // How long the first queued message waits for others to join its batch
+    private static final long BATCH_WINDOW_MS = 50;
+    private static final int MAX_BATCH_SIZE = 50;
+    private static final long INITIAL_RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+    // Server rejections before a message is undeliverable; network failures do not count
+    private static final int MAX_ATTEMPTS = 5;
+
+    // Called on the main thread whenever a queued message is sent or fails
+    public interface Listener {
+        void onMessageStateChanged(Message message);
+    }
+
+    private final OutboxStore store;
+    // All queue state below is only touched on this single thread
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long retryDelayMs = INITIAL_RETRY_DELAY_MS;
+    private boolean backingOff;
+    // Drops to 1 after a rejected batch, so a single bad message cannot fail the others with it
+    private int batchSize = MAX_BATCH_SIZE;
+
+    public MessageOutbox(Context context) {
+        this.store = OutboxStore.getInstance(context);
+
+        // Messages left over from a previous run
+        flushExecutor.execute(() -> scheduleFlush(0));
+    }
+
+    // Replays whatever is queued; ShareEverythingApp calls this when a network becomes available
+    public void onNetworkAvailable() {
+        AppLog.d(TAG, "Network available, flushing outbox");
+        flushExecutor.execute(() -> {
+            backingOff = false;
+            retryDelayMs = INITIAL_RETRY_DELAY_MS;
+            scheduleFlush(0);
+        });
+    }
+
+    // Queues an undeliverable message again, e.g. when the user taps it
+    public void retry(Message message) {
+        flushExecutor.execute(() -> {
+            if (store.requeue(message.getClientId())) {
+                notifyStateChanged(Collections.singletonList(message), Message.SEND_STATE_PENDING);
+                if (!backingOff) {
+                    scheduleFlush(0);
+                }
+            }
+        });
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Queues the message and returns the pending copy, with its idempotency key, to display
+    public Message send(Message message) {
+        Message pending = new Message(
+            null,
+            message.getClientId() != null ? message.getClientId() : UUID.randomUUID().toString(),
+            message.getSender(),
+            message.getReceiver(),
+            message.getContent(),
+            message.getType(),
+            message.getTimestamp(),
+            message.getCreatedAt(),
+            Message.SEND_STATE_PENDING,
+            message.getThumbnailUrl()
+        );
+        flushExecutor.execute(() -> {
+            store.enqueue(pending);
+            // While backing off, new messages wait for the retry instead of failing fast
+            if (!backingOff) {
+                scheduleFlush(BATCH_WINDOW_MS);
+            }
+        });
+        return pending;
+    }
+
+    public List<Message> getUnsentMessages(String user1, String user2) {
+        return store.loadUnsent(user1, user2);
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (scheduledFlush != null && !scheduledFlush.isDone()) {
+            if (scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= delayMs) return;
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = flushExecutor.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        scheduledFlush = null;
+        List<Message> batch;
+        while (!(batch = store.loadUnsent(batchSize)).isEmpty()) {
+            try {
+                var client = SupabaseClientProvider.INSTANCE.getClient();
+                SupabaseWrapper.insertMessages(client, batch);
+                store.remove(batch);
+                AppLog.d(TAG, "Inserted batch of " + batch.size() + " messages");
+                notifyStateChanged(batch, Message.SEND_STATE_SENT);
+                backingOff = false;
+                retryDelayMs = INITIAL_RETRY_DELAY_MS;
+                batchSize = MAX_BATCH_SIZE;
+            } catch (Exception e) {
+                // A RestException means the server answered and refused the rows; anything else,
+                // like being offline, says nothing about the messages themselves
+                boolean rejected = e instanceof RestException;
+                List<Message> failed = store.markFailed(batch, rejected, MAX_ATTEMPTS);
+                notifyStateChanged(failed);
+                if (rejected) {
+                    batchSize = 1;
+                    if (failed.size() == 1
+                            && Message.SEND_STATE_UNDELIVERABLE.equals(failed.get(0).getSendState())) {
+                        // Set aside; carry on with the rest of the queue straight away
+                        AppLog.e(TAG, "Giving up on message " + failed.get(0).getClientId() + " after "
+                            + MAX_ATTEMPTS + " rejections", e);
+                        continue;
+                    }
+                }
+                AppLog.e(TAG, "Error inserting batch of " + batch.size() + " messages, retrying in "
+                    + retryDelayMs + "ms", e);
+                backingOff = true;
+                scheduleFlush(retryDelayMs);
+                retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                return;
+            }
+        }
+    }
+
+    private void notifyStateChanged(List<Message> batch, String state) {
+        List<Message> updated = new ArrayList<>(batch.size());
+        for (Message message : batch) {
+            updated.add(message.withSendState(state));
+        }
+        notifyStateChanged(updated);
+    }
+
+    private void notifyStateChanged(List<Message> updated) {
+        mainHandler.post(() -> {
+            for (Message message : updated) {
+                for (Listener listener : listeners) {
+                    listener.onMessageStateChanged(message);
+                }
+            }
+        });
+    }
+}
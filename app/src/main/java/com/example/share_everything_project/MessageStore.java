@@ -0,0 +1,361 @@
+package com.example.share_everything_project;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * On-device cache of chat messages, keyed by conversation pair and timestamp.
+ * Lets ChatViewModel render history immediately and only ask Supabase for the delta.
+ */
+public class MessageStore {
+    private static final String TAG = "MessageStore";
+    private static MessageStore instance;
+
+    private final AppDatabase database;
+    // Writes nobody waits for, e.g. from the realtime callback thread, applied in order
+    private final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+    // Read markers set in this process, known before the database and server writes land
+    private final ConcurrentHashMap<String, Long> readMarkers = new ConcurrentHashMap<>();
+
+    // Messages the server has strictly between the older and newer edges, which are
+    // (timestamp, id) cursors, and the cache does not
+    public static final class HistoryGap {
+        final long id;
+        final long olderTimestamp;
+        final long olderId;
+        final long newerTimestamp;
+        final long newerId;
+
+        HistoryGap(long id, long olderTimestamp, long olderId, long newerTimestamp, long newerId) {
+            this.id = id;
+            this.olderTimestamp = olderTimestamp;
+            this.olderId = olderId;
+            this.newerTimestamp = newerTimestamp;
+            this.newerId = newerId;
+        }
+
+        // True for messages on the older side of the gap, edge included
+        boolean isAtOrBeforeOlderEdge(Message message) {
+            return message.getTimestamp() < olderTimestamp
+                || (message.getTimestamp() == olderTimestamp && MessageList.numericId(message) <= olderId);
+        }
+
+        // True for messages on the newer side of the gap, edge included
+        boolean isAtOrAfterNewerEdge(Message message) {
+            return message.getTimestamp() > newerTimestamp
+                || (message.getTimestamp() == newerTimestamp && MessageList.numericId(message) >= newerId);
+        }
+    }
+
+    // Newest (timestamp, id) up to which the cache holds every server message of a
+    // conversation. Only fetches move it: realtime rows are cached as they arrive, but one
+    // pushed while a fetch is failing or still running says nothing about the rows before it
+    public static final class SyncCursor {
+        final long timestamp;
+        final long id;
+
+        SyncCursor(long timestamp, long id) {
+            this.timestamp = timestamp;
+            this.id = id;
+        }
+    }
+
+    public static synchronized MessageStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageStore(AppDatabase.getInstance(context));
+        }
+        return instance;
+    }
+
+    private MessageStore(AppDatabase database) {
+        this.database = database;
+    }
+
+    // Same key for both directions of a conversation
+    public static String conversationKey(String user1, String user2) {
+        return user1.compareTo(user2) <= 0 ? user1 + "|" + user2 : user2 + "|" + user1;
+    }
+
+    // Page of cached messages strictly older than the (beforeTimestamp, beforeId) cursor, oldest first
+    public List<Message> loadPageBefore(String user1, String user2, long beforeTimestamp, long beforeId, int limit) {
+        List<Message> result = queryPage(
+            "conversation = ? AND (timestamp < ? OR (timestamp = ? AND CAST(id AS INTEGER) < CAST(? AS INTEGER)))",
+            new String[]{
+                conversationKey(user1, user2),
+                String.valueOf(beforeTimestamp),
+                String.valueOf(beforeTimestamp),
+                String.valueOf(beforeId)
+            },
+            "timestamp DESC, CAST(id AS INTEGER) DESC",
+            limit
+        );
+        Collections.reverse(result);
+        AppLog.d(TAG, () -> "Loaded " + result.size() + " cached messages before " + beforeTimestamp);
+        return result;
+    }
+
+    // Page of cached messages strictly newer than the (afterTimestamp, afterId) cursor, oldest first
+    public List<Message> loadPageAfter(String user1, String user2, long afterTimestamp, long afterId, int limit) {
+        List<Message> result = queryPage(
+            "conversation = ? AND (timestamp > ? OR (timestamp = ? AND CAST(id AS INTEGER) > CAST(? AS INTEGER)))",
+            new String[]{
+                conversationKey(user1, user2),
+                String.valueOf(afterTimestamp),
+                String.valueOf(afterTimestamp),
+                String.valueOf(afterId)
+            },
+            "timestamp ASC, CAST(id AS INTEGER) ASC",
+            limit
+        );
+        AppLog.d(TAG, () -> "Loaded " + result.size() + " cached messages after " + afterTimestamp);
+        return result;
+    }
+
+    // Null until a fetch has reached the newest messages once
+    public SyncCursor loadSyncCursor(String user1, String user2) {
+        try (Cursor cursor = database.getReadableDatabase().query(
+                "sync_cursors",
+                new String[]{"timestamp", "message_id"},
+                "conversation = ?",
+                new String[]{conversationKey(user1, user2)},
+                null,
+                null,
+                null)) {
+            if (!cursor.moveToFirst()) return null;
+            return new SyncCursor(cursor.getLong(0), cursor.getLong(1));
+        }
+    }
+
+    // Moves the cursor up to newest, the last row of a fetch that continued from it; never back
+    public void advanceSyncCursor(Message newest) {
+        String conversation = conversationKey(newest.getSender(), newest.getReceiver());
+        long timestamp = newest.getTimestamp();
+        long id = MessageList.numericId(newest);
+        // Plain INSERT OR IGNORE + UPDATE, since UPSERT needs a newer SQLite than minSdk ships
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL(
+                "INSERT OR IGNORE INTO sync_cursors (conversation, timestamp, message_id) VALUES (?, ?, ?)",
+                new Object[]{conversation, timestamp, id});
+            db.execSQL(
+                "UPDATE sync_cursors SET timestamp = ?, message_id = ? "
+                    + "WHERE conversation = ? AND (timestamp < ? OR (timestamp = ? AND message_id < ?))",
+                new Object[]{timestamp, id, conversation, timestamp, timestamp, id});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Records that the server has messages between older and newer that were not fetched
+    public void addGap(Message older, Message newer) {
+        ContentValues values = new ContentValues();
+        values.put("conversation", conversationKey(older.getSender(), older.getReceiver()));
+        values.put("older_timestamp", older.getTimestamp());
+        values.put("older_id", MessageList.numericId(older));
+        values.put("newer_timestamp", newer.getTimestamp());
+        values.put("newer_id", MessageList.numericId(newer));
+        database.getWritableDatabase().insert("history_gaps", null, values);
+        AppLog.d(TAG, () -> "Skipped history between " + older.getTimestamp() + " and " + newer.getTimestamp());
+    }
+
+    // The first gap paging back from the cursor: the newest one whose newer edge is at or before it
+    public HistoryGap findGapBefore(String user1, String user2, long timestamp, long id) {
+        return queryGap(
+            "conversation = ? AND (newer_timestamp < ? OR (newer_timestamp = ? AND newer_id <= ?))",
+            user1, user2, timestamp, id, "newer_timestamp DESC, newer_id DESC");
+    }
+
+    // The first gap paging forward from the cursor: the oldest one whose older edge is at or after it
+    public HistoryGap findGapAfter(String user1, String user2, long timestamp, long id) {
+        return queryGap(
+            "conversation = ? AND (older_timestamp > ? OR (older_timestamp = ? AND older_id >= ?))",
+            user1, user2, timestamp, id, "older_timestamp ASC, older_id ASC");
+    }
+
+    // Moves the newer edge back to a message fetched from inside the gap
+    public void shrinkGapFromNewer(HistoryGap gap, Message newer) {
+        ContentValues values = new ContentValues();
+        values.put("newer_timestamp", newer.getTimestamp());
+        values.put("newer_id", MessageList.numericId(newer));
+        database.getWritableDatabase().update("history_gaps", values, "id = ?", new String[]{String.valueOf(gap.id)});
+    }
+
+    // Moves the older edge up to a message fetched from inside the gap
+    public void shrinkGapFromOlder(HistoryGap gap, Message older) {
+        ContentValues values = new ContentValues();
+        values.put("older_timestamp", older.getTimestamp());
+        values.put("older_id", MessageList.numericId(older));
+        database.getWritableDatabase().update("history_gaps", values, "id = ?", new String[]{String.valueOf(gap.id)});
+    }
+
+    // Called once everything inside the gap has been fetched
+    public void removeGap(HistoryGap gap) {
+        database.getWritableDatabase().delete("history_gaps", "id = ?", new String[]{String.valueOf(gap.id)});
+    }
+
+    private HistoryGap queryGap(String selection, String user1, String user2, long timestamp, long id, String orderBy) {
+        try (Cursor cursor = database.getReadableDatabase().query(
+                "history_gaps",
+                new String[]{"id", "older_timestamp", "older_id", "newer_timestamp", "newer_id"},
+                selection,
+                new String[]{
+                    conversationKey(user1, user2),
+                    String.valueOf(timestamp),
+                    String.valueOf(timestamp),
+                    String.valueOf(id)
+                },
+                null,
+                null,
+                orderBy,
+                "1")) {
+            if (!cursor.moveToFirst()) return null;
+            return new HistoryGap(cursor.getLong(0), cursor.getLong(1), cursor.getLong(2), cursor.getLong(3),
+                cursor.getLong(4));
+        }
+    }
+
+    private List<Message> queryPage(String selection, String[] selectionArgs, String orderBy, int limit) {
+        List<Message> result = new ArrayList<>();
+        SQLiteDatabase db = database.getReadableDatabase();
+        try (Cursor cursor = db.query(
+                "messages",
+                new String[]{"id", "sender", "receiver", "content", "type", "timestamp", "created_at", "client_id",
+                    "thumbnail_url"},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                orderBy,
+                String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                result.add(new Message(
+                    cursor.getString(0),
+                    cursor.getString(7),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getString(4),
+                    cursor.getLong(5),
+                    cursor.getString(6),
+                    null,
+                    cursor.getString(8)
+                ));
+            }
+        }
+        return result;
+    }
+
+    // Local stand-in for the conversation_summaries RPC, computed from the cache; used to
+    // render the conversation list before (or without) a server response
+    public List<ConversationSummary> loadConversationSummaries(String username) {
+        List<ConversationSummary> result = new ArrayList<>();
+        SQLiteDatabase db = database.getReadableDatabase();
+        // SQLite takes the bare content/type columns from the row holding MAX(timestamp)
+        try (Cursor cursor = db.rawQuery(
+                "SELECT m.peer, m.content, m.type, MAX(m.timestamp) AS last_timestamp, "
+                    + "SUM(CASE WHEN m.receiver = ? AND m.timestamp > COALESCE(r.last_read_timestamp, 0) "
+                    + "THEN 1 ELSE 0 END) "
+                    + "FROM (SELECT CASE WHEN sender = ? THEN receiver ELSE sender END AS peer, "
+                    + "receiver, content, type, timestamp FROM messages "
+                    + "WHERE sender = ? OR receiver = ?) m "
+                    + "LEFT JOIN conversation_reads r ON r.username = ? AND r.peer = m.peer "
+                    + "GROUP BY m.peer ORDER BY last_timestamp DESC",
+                new String[]{username, username, username, username, username})) {
+            while (cursor.moveToNext()) {
+                result.add(new ConversationSummary(
+                    cursor.getString(0),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getLong(3),
+                    cursor.getLong(4)
+                ));
+            }
+        }
+        AppLog.d(TAG, "Loaded " + result.size() + " cached conversation summaries");
+        return result;
+    }
+
+    // Records a read right away, for callers that cannot wait for markConversationRead
+    public void noteConversationRead(String username, String peer, long lastReadTimestamp) {
+        readMarkers.merge(username + "|" + peer, lastReadTimestamp, Math::max);
+    }
+
+    // Newest read marker noted in this process, 0 if none
+    public long notedReadTimestamp(String username, String peer) {
+        Long timestamp = readMarkers.get(username + "|" + peer);
+        return timestamp != null ? timestamp : 0;
+    }
+
+    // Only ever moves the read marker forward
+    public void markConversationRead(String username, String peer, long lastReadTimestamp) {
+        // Plain INSERT OR IGNORE + UPDATE, since UPSERT needs a newer SQLite than minSdk ships
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL(
+                "INSERT OR IGNORE INTO conversation_reads (username, peer, last_read_timestamp) VALUES (?, ?, 0)",
+                new Object[]{username, peer});
+            db.execSQL(
+                "UPDATE conversation_reads SET last_read_timestamp = MAX(last_read_timestamp, ?) "
+                    + "WHERE username = ? AND peer = ?",
+                new Object[]{lastReadTimestamp, username, peer});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Same as saveMessages, on the store's write thread
+    public void saveMessagesAsync(List<Message> messages) {
+        if (messages.isEmpty()) return;
+
+        List<Message> copy = new ArrayList<>(messages);
+        writeExecutor.execute(() -> {
+            try {
+                saveMessages(copy);
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error caching " + copy.size() + " messages", e);
+            }
+        });
+    }
+
+    public void saveMessages(List<Message> messages) {
+        if (messages.isEmpty()) return;
+
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Message message : messages) {
+                // Only server rows have an id; optimistic local messages are not cached
+                if (message.getId() == null || message.getId().isEmpty()) continue;
+
+                values.clear();
+                values.put("id", message.getId());
+                values.put("conversation", conversationKey(message.getSender(), message.getReceiver()));
+                values.put("sender", message.getSender());
+                values.put("receiver", message.getReceiver());
+                values.put("content", message.getContent());
+                values.put("type", message.getType());
+                values.put("timestamp", message.getTimestamp());
+                values.put("created_at", message.getCreatedAt());
+                values.put("client_id", message.getClientId());
+                values.put("thumbnail_url", message.getThumbnailUrl());
+                db.insertWithOnConflict("messages", null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
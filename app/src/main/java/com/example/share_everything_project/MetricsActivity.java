@@ -0,0 +1,83 @@
+package com.example.share_everything_project;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MenuItem;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * Debug screen showing SupabaseMetrics, refreshed every second while visible. Available in
+ * release builds so regressions can be checked on real devices; the same text is printed by
+ * adb shell dumpsys activity com.example.share_everything_project/.MetricsActivity
+ */
+public class MetricsActivity extends AppCompatActivity {
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            metricsText.setText(SupabaseMetrics.getInstance().dump());
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+    private TextView metricsText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        Toolbar toolbar = findViewById(R.id.metricsToolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Diagnostics");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        metricsText = findViewById(R.id.metricsText);
+        findViewById(R.id.resetMetricsButton).setOnClickListener(v -> {
+            SupabaseMetrics.getInstance().reset();
+            metricsText.setText(SupabaseMetrics.getInstance().dump());
+        });
+        findViewById(R.id.shareMetricsButton).setOnClickListener(v -> {
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.setType("text/plain");
+            shareIntent.putExtra(Intent.EXTRA_TEXT, SupabaseMetrics.getInstance().dump());
+            startActivity(Intent.createChooser(shareIntent, "Share metrics via"));
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh.run();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(SupabaseMetrics.getInstance().dump());
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.share_everything_project;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-disk queue of outgoing messages, so nothing typed is lost if the app dies or the
+ * network is down. Rows are removed once the server has accepted them.
+ */
+public class OutboxStore {
+    private static OutboxStore instance;
+
+    private static final String[] COLUMNS = {
+        "client_id", "sender", "receiver", "content", "type", "timestamp", "created_at", "state", "thumbnail_url"
+    };
+
+    private final AppDatabase database;
+
+    public static synchronized OutboxStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new OutboxStore(AppDatabase.getInstance(context));
+        }
+        return instance;
+    }
+
+    private OutboxStore(AppDatabase database) {
+        this.database = database;
+    }
+
+    public void enqueue(Message message) {
+        ContentValues values = new ContentValues();
+        values.put("client_id", message.getClientId());
+        values.put("sender", message.getSender());
+        values.put("receiver", message.getReceiver());
+        values.put("content", message.getContent());
+        values.put("type", message.getType());
+        values.put("timestamp", message.getTimestamp());
+        values.put("created_at", message.getCreatedAt());
+        values.put("state", Message.SEND_STATE_PENDING);
+        values.put("thumbnail_url", message.getThumbnailUrl());
+        database.getWritableDatabase().insertWithOnConflict(
+            "outbox", null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
+
+    // Oldest unsent messages first, failed ones included so they are replayed; undeliverable ones
+    // wait for the user to retry them
+    public List<Message> loadUnsent(int limit) {
+        return query("state != ?", new String[]{Message.SEND_STATE_UNDELIVERABLE}, limit);
+    }
+
+    public List<Message> loadUnsent(String user1, String user2) {
+        return query(
+            "(sender = ? AND receiver = ?) OR (sender = ? AND receiver = ?)",
+            new String[]{user1, user2, user2, user1},
+            Integer.MAX_VALUE
+        );
+    }
+
+    public void remove(List<Message> messages) {
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                db.delete("outbox", "client_id = ?", new String[]{message.getClientId()});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Marks the messages failed; when rejected is set the attempt counts against maxAttempts, and
+    // messages that reach it become undeliverable. Returns the messages with their new state
+    public List<Message> markFailed(List<Message> messages, boolean rejected, int maxAttempts) {
+        List<Message> updated = new ArrayList<>(messages.size());
+        SQLiteDatabase db = database.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                db.execSQL(
+                    "UPDATE outbox SET attempts = attempts + ?, "
+                        + "state = CASE WHEN attempts + ? >= ? THEN ? ELSE ? END WHERE client_id = ?",
+                    new Object[]{rejected ? 1 : 0, rejected ? 1 : 0, maxAttempts,
+                        Message.SEND_STATE_UNDELIVERABLE, Message.SEND_STATE_FAILED, message.getClientId()});
+                try (Cursor cursor = db.rawQuery(
+                        "SELECT state FROM outbox WHERE client_id = ?", new String[]{message.getClientId()})) {
+                    if (cursor.moveToFirst()) {
+                        updated.add(message.withSendState(cursor.getString(0)));
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return updated;
+    }
+
+    // Puts an undeliverable message back in the queue with a fresh attempt count
+    public boolean requeue(String clientId) {
+        ContentValues values = new ContentValues();
+        values.put("state", Message.SEND_STATE_PENDING);
+        values.put("attempts", 0);
+        return database.getWritableDatabase().update("outbox", values, "client_id = ? AND state = ?",
+            new String[]{clientId, Message.SEND_STATE_UNDELIVERABLE}) > 0;
+    }
+
+    private List<Message> query(String selection, String[] selectionArgs, int limit) {
+        List<Message> result = new ArrayList<>();
+        try (Cursor cursor = database.getReadableDatabase().query(
+                "outbox", COLUMNS, selection, selectionArgs, null, null, "seq ASC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                result.add(new Message(
+                    null,
+                    cursor.getString(0),
+                    cursor.getString(1),
+                    cursor.getString(2),
+                    cursor.getString(3),
+                    cursor.getString(4),
+                    cursor.getLong(5),
+                    cursor.getString(6),
+                    cursor.getString(7),
+                    cursor.getString(8)
+                ));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.share_everything_project
+
+import io.github.jan.supabase.SupabaseClient
+import io.github.jan.supabase.postgrest.query.filter.FilterOperator
+import io.github.jan.supabase.realtime.PostgresAction
+import io.github.jan.supabase.realtime.Realtime
+import io.github.jan.supabase.realtime.RealtimeChannel
+import io.github.jan.supabase.realtime.channel
+import io.github.jan.supabase.realtime.decodeRecord
+import io.github.jan.supabase.realtime.postgresChangeFlow
+import io.github.jan.supabase.realtime.realtime
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.combine
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.launchIn
+import kotlinx.coroutines.flow.merge
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlinx.serialization.json.contentOrNull
+import kotlinx.serialization.json.jsonPrimitive
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * One realtime channel per signed-in user, filtered on the server to rows the user sent or
+ * received, fanned out to per-conversation listeners. Owned by ShareEverythingApp.
+ * When the socket or channel drops it resubscribes with backoff and tells ReconnectListeners,
+ * which fetch only what was inserted in between.
+ */
+class RealtimeMultiplexer(
+    // Called on the subscription coroutine, so creating a multiplexer never builds the client
+    // on the caller's thread
+    clientProvider: () -> SupabaseClient,
+    val username: String
+) {
+    constructor(client: SupabaseClient, username: String) : this({ client }, username)
+
+    private val client by lazy(clientProvider)
+
+    fun interface MessageListener {
+        fun onMessage(message: Message)
+    }
+
+    // Called after the subscription comes back from an outage, on a background thread; rows
+    // inserted while it was down were never pushed and have to be fetched
+    fun interface ReconnectListener {
+        fun onReconnected()
+    }
+
+    // Returned by the add*Listener methods; removing it is the only way to stop delivery
+    fun interface Registration {
+        fun remove()
+    }
+
+    enum class ConnectionState { DISCONNECTED, CONNECTING, CONNECTED }
+
+    // Child of the wrapper's session scope; stop() cancels the collector and everything else here
+    private val scope = SupabaseWrapper.newChildScope(SupabaseWrapper.sessionScope())
+    private val listeners = ConcurrentHashMap<String, CopyOnWriteArrayList<MessageListener>>()
+    // Called for every message of every conversation, e.g. by the conversation list
+    private val globalListeners = CopyOnWriteArrayList<MessageListener>()
+    private val reconnectListeners = CopyOnWriteArrayList<ReconnectListener>()
+    // Wakes a pending reconnect before its backoff is over
+    private val retryNow = Channel<Unit>(Channel.CONFLATED)
+    private var supervisor: Job? = null
+
+    @Volatile
+    var connectionState = ConnectionState.DISCONNECTED
+        private set
+
+    @Synchronized
+    fun start() {
+        if (supervisor != null) return
+
+        AppLog.d(TAG) { "Setting up realtime multiplexer for user: $username" }
+        supervisor = scope.launch { maintainSubscription() }
+    }
+
+    // Subscribes, waits for the socket or the channel to drop, and subscribes again with
+    // exponential backoff, until stop() cancels the scope
+    private suspend fun maintainSubscription() {
+        var failures = 0
+        // System.nanoTime() when the last outage started, 0 while connected or before the first subscribe
+        var downSince = 0L
+        while (true) {
+            connectionState = ConnectionState.CONNECTING
+            val channel = client.realtime.channel("messages:$username")
+            try {
+                coroutineScope {
+                    val collector = collect(channel).launchIn(this)
+                    if (client.realtime.status.value != Realtime.Status.CONNECTED) {
+                        client.realtime.connect()
+                    }
+                    channel.subscribe()
+                    withTimeoutOrNull(SUBSCRIBE_TIMEOUT_MS) {
+                        channel.status.first { it == RealtimeChannel.Status.SUBSCRIBED }
+                    } ?: throw IOException("Timed out subscribing to realtime")
+
+                    connectionState = ConnectionState.CONNECTED
+                    AppLog.d(TAG, "Realtime multiplexer subscribed")
+                    failures = 0
+                    if (downSince != 0L) {
+                        SupabaseMetrics.getInstance().record(SupabaseMetrics.REALTIME_RECONNECT,
+                            System.nanoTime() - downSince, 0, 0, false)
+                        downSince = 0L
+                        reconnectListeners.forEach { it.onReconnected() }
+                    }
+
+                    // The client library reports a dead socket through its status once heartbeats fail
+                    combine(client.realtime.status, channel.status) { socket, subscription ->
+                        socket == Realtime.Status.CONNECTED && subscription == RealtimeChannel.Status.SUBSCRIBED
+                    }.first { connected -> !connected }
+                    AppLog.w(TAG, "Realtime connection lost, reconnecting")
+                    collector.cancel()
+                }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                AppLog.w(TAG, "Realtime subscribe failed: ${e.message}")
+            } finally {
+                connectionState = ConnectionState.DISCONNECTED
+                // Removed before the next attempt reuses the topic, and also when stop() cancels us
+                withContext(NonCancellable) {
+                    withTimeoutOrNull(LEAVE_TIMEOUT_MS) {
+                        try {
+                            client.realtime.removeChannel(channel)
+                        } catch (e: Exception) {
+                            AppLog.d(TAG, "Error removing realtime channel: ${e.message}")
+                        }
+                    }
+                }
+            }
+
+            if (downSince == 0L) downSince = System.nanoTime()
+            failures++
+            val delayMillis = backoffMillis(failures)
+            AppLog.d(TAG) { "Realtime reconnect attempt $failures in ${delayMillis}ms" }
+            withTimeoutOrNull(delayMillis) { retryNow.receive() }
+        }
+    }
+
+    // Realtime only accepts one filter per subscription, so listen for each side separately
+    private fun collect(channel: RealtimeChannel): Flow<PostgresAction.Insert> {
+        val received = channel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
+            table = "messages"
+            filter("receiver", FilterOperator.EQ, username)
+        }
+        val sent = channel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
+            table = "messages"
+            filter("sender", FilterOperator.EQ, username)
+        }.filter { insertAction ->
+            // A message to ourselves matches both filters; the received copy is the one handled
+            insertAction.record["receiver"]?.jsonPrimitive?.contentOrNull != username
+        }
+
+        return merge(received, sent).onEach { insertAction ->
+            try {
+                val message = insertAction.decodeRecord<MessageData>().toMessage()
+                RECORD_LOG.log { "Realtime record ${message.id}" }
+                dispatch(message)
+                // End to end: from the sender stamping the message to our listeners having run
+                SupabaseMetrics.getInstance().recordRealtimeDelivery(System.currentTimeMillis() - message.timestamp)
+            } catch (e: Exception) {
+                SupabaseMetrics.getInstance().record(SupabaseMetrics.REALTIME_DELIVERY, 0, 0, 0, true)
+                AppLog.e(TAG, "Error in realtime multiplexer: ${e.message}", e)
+            }
+        }
+    }
+
+    // Skips the rest of the current backoff, e.g. when the device gets a network back
+    fun onNetworkAvailable() {
+        if (connectionState != ConnectionState.CONNECTED) retryNow.trySend(Unit)
+    }
+
+    fun addListener(otherUser: String, listener: MessageListener): Registration {
+        val key = MessageStore.conversationKey(username, otherUser)
+        listeners.compute(key) { _, conversationListeners ->
+            (conversationListeners ?: CopyOnWriteArrayList()).apply { add(listener) }
+        }
+        return Registration { removeListener(key, listener) }
+    }
+
+    fun addGlobalListener(listener: MessageListener): Registration {
+        globalListeners.add(listener)
+        return Registration { globalListeners.remove(listener) }
+    }
+
+    fun addReconnectListener(listener: ReconnectListener): Registration {
+        reconnectListeners.add(listener)
+        return Registration { reconnectListeners.remove(listener) }
+    }
+
+    // Listeners across all conversations, used by leak tests
+    fun listenerCount(): Int = listeners.values.sumOf { it.size } + globalListeners.size + reconnectListeners.size
+
+    // Coroutines still running for this multiplexer: the loop that keeps the subscription up
+    fun activeCollectorCount(): Int = scope.coroutineContext[Job]!!.children.count { it.isActive }
+
+    private fun removeListener(key: String, listener: MessageListener) {
+        listeners.computeIfPresent(key) { _, conversationListeners ->
+            conversationListeners.remove(listener)
+            if (conversationListeners.isEmpty()) null else conversationListeners
+        }
+    }
+
+    @Synchronized
+    fun stop() {
+        supervisor = null
+        listeners.clear()
+        globalListeners.clear()
+        reconnectListeners.clear()
+        // Also removes the channel, see maintainSubscription
+        scope.cancel()
+        connectionState = ConnectionState.DISCONNECTED
+    }
+
+    // Benchmark build only, through BenchmarkRealtime: hands a message to the listeners as if the
+    // server had pushed it. Internal so it is not part of the API the app or Java code sees
+    internal fun replay(message: Message) = dispatch(message)
+
+    private fun dispatch(message: Message) {
+        listeners[MessageStore.conversationKey(message.sender, message.receiver)]?.forEach {
+            it.onMessage(message)
+        }
+        globalListeners.forEach { it.onMessage(message) }
+    }
+
+    // Doubles per failed attempt up to MAX_BACKOFF_MS, with jitter so clients that dropped
+    // together do not all come back in the same instant
+    private fun backoffMillis(failures: Int): Long {
+        val ceiling = min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS shl min(failures - 1, 5))
+        return (ceiling * (0.5 + Random.nextDouble() * 0.5)).toLong()
+    }
+
+    private companion object {
+        const val TAG = "RealtimeMultiplexer"
+        const val SUBSCRIBE_TIMEOUT_MS = 15_000L
+        const val LEAVE_TIMEOUT_MS = 2_000L
+        const val INITIAL_BACKOFF_MS = 1_000L
+        const val MAX_BACKOFF_MS = 30_000L
+        // One line per realtime record at VERBOSE, sampled at DEBUG
+        val RECORD_LOG: AppLog.Sampler = AppLog.sampler(TAG, 50)
+    }
+}
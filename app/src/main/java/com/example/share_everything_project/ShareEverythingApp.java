@@ -1,21 +1,156 @@
 package com.example.share_everything_project;
 
 import android.app.Application;
-import android.util.Log;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ShareEverythingApp extends Application {
     private static final String TAG = "ShareEverythingApp";
+    static final String PREFS = "ShareHubPrefs";
+    static final String KEY_USERNAME = "username";
     private static ShareEverythingApp instance;
+    // Read and swapped without a lock, so the main thread never waits behind warmUp
+    private final AtomicReference<RealtimeMultiplexer> realtime = new AtomicReference<>();
+    private UploadScheduler uploadScheduler;
+    private MessageOutbox messageOutbox;
+    private DownloadCache downloadCache;
+    private final ExecutorService startupExecutor = Executors.newSingleThreadExecutor();
+    // Conversation list read during startup, handed to the first MainActivity that asks
+    private Future<List<Conversation>> prefetchedConversations;
+    private Future<List<ConversationSummary>> prefetchedSummaries;
+    private String prefetchedUsername;
 
     @Override
     public void onCreate() {
         super.onCreate();
         instance = this;
-        Log.d(TAG, "Application onCreate called!");
+        AppLog.init(this);
+        uploadScheduler = new UploadScheduler(this);
+        messageOutbox = new MessageOutbox(this);
+        downloadCache = new DownloadCache(this);
+        AppLog.d(TAG, "Application onCreate called!");
+        registerNetworkCallback();
         // No Firebase initialization needed for Supabase
+
+        String username = getSavedUsername();
+        if (username != null) {
+            warmUp(username);
+        }
+    }
+
+    // The one connectivity signal: realtime waits out its backoff while offline and the outbox
+    // its retry delay, so both go again as soon as a network is back
+    private void registerNetworkCallback() {
+        ConnectivityManager connectivityManager = getSystemService(ConnectivityManager.class);
+        if (connectivityManager == null) return;
+        connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                RealtimeMultiplexer current = realtime.get();
+                if (current != null) current.onNetworkAvailable();
+                messageOutbox.onNetworkAvailable();
+            }
+        });
+    }
+
+    // Null until the user has signed in once
+    public String getSavedUsername() {
+        String username = getSharedPreferences(PREFS, MODE_PRIVATE).getString(KEY_USERNAME, null);
+        return username != null && !username.isEmpty() ? username : null;
+    }
+
+    public void saveUsername(String username) {
+        SharedPreferences prefs = getSharedPreferences(PREFS, MODE_PRIVATE);
+        if (username != null) {
+            prefs.edit().putString(KEY_USERNAME, username).apply();
+        } else {
+            prefs.edit().remove(KEY_USERNAME).apply();
+        }
+    }
+
+    // Off the main thread: read the conversation list from disk, build the Supabase client and
+    // open the realtime connection, so MainActivity finds everything ready on first frame
+    public synchronized void warmUp(String username) {
+        AppLog.d(TAG, "Warming up for " + username);
+        prefetchedUsername = username;
+        prefetchedConversations = startupExecutor.submit(() -> ConversationStore.getInstance(this).loadAll());
+        prefetchedSummaries = startupExecutor.submit(
+            () -> MessageStore.getInstance(this).loadConversationSummaries(username));
+        startupExecutor.execute(() -> {
+            try {
+                // Builds the client here rather than on whichever thread first needs it
+                SupabaseClientProvider.INSTANCE.getClient();
+                getRealtime(username);
+            } catch (Exception e) {
+                AppLog.e(TAG, "Error warming up realtime connection", e);
+            }
+        });
+    }
+
+    // Each prefetch is used once; later loads read the stores directly
+    public synchronized Future<List<Conversation>> takePrefetchedConversations() {
+        Future<List<Conversation>> result = prefetchedConversations;
+        prefetchedConversations = null;
+        return result;
+    }
+
+    public synchronized Future<List<ConversationSummary>> takePrefetchedSummaries(String username) {
+        Future<List<ConversationSummary>> result = username.equals(prefetchedUsername) ? prefetchedSummaries : null;
+        prefetchedSummaries = null;
+        return result;
     }
 
     public static ShareEverythingApp getInstance() {
         return instance;
     }
+
+    public MessageOutbox getMessageOutbox() {
+        return messageOutbox;
+    }
+
+    public UploadScheduler getUploadScheduler() {
+        return uploadScheduler;
+    }
+
+    public DownloadCache getDownloadCache() {
+        return downloadCache;
+    }
+
+    // Forgets the saved user and closes their realtime channel
+    public synchronized void signOut() {
+        saveUsername(null);
+        RealtimeMultiplexer current = realtime.getAndSet(null);
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    // Shared realtime subscription for the signed-in user, replaced when the user changes.
+    // Safe on the main thread: it takes no lock, and the multiplexer builds the client and
+    // subscribes on its own coroutine
+    public RealtimeMultiplexer getRealtime(String username) {
+        while (true) {
+            RealtimeMultiplexer current = realtime.get();
+            if (current != null && current.getUsername().equals(username)) {
+                return current;
+            }
+            RealtimeMultiplexer created = new RealtimeMultiplexer(
+                () -> SupabaseClientProvider.INSTANCE.getClient(), username);
+            if (realtime.compareAndSet(current, created)) {
+                if (current != null) {
+                    current.stop();
+                }
+                created.start();
+                return created;
+            }
+            // Another thread swapped it first; drop ours and look again
+            created.stop();
+        }
+    }
 } 
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.example.share_everything_project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory latency, size and error statistics for every Supabase call SupabaseWrapper makes,
+ * plus end-to-end realtime delivery latency. Recording is a few field updates under a per-operation
+ * lock, cheap enough to stay on in release builds. Shown by MetricsActivity and printed by
+ * adb shell dumpsys activity com.example.share_everything_project/.MetricsActivity
+ */
+public class SupabaseMetrics {
+    public static final String REALTIME_DELIVERY = "realtimeDelivery";
+    // Recorded once per outage, with how long the realtime subscription was down as its latency
+    public static final String REALTIME_RECONNECT = "realtimeReconnect";
+
+    // Upper bounds of the latency buckets in ms; the last bucket is open-ended
+    private static final long[] BUCKET_BOUNDS_MS = {
+        1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000
+    };
+
+    private static final SupabaseMetrics instance = new SupabaseMetrics();
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private volatile long sinceMillis = System.currentTimeMillis();
+
+    public static SupabaseMetrics getInstance() {
+        return instance;
+    }
+
+    // rows and bytes are what the call returned or sent; pass 0 when not known
+    public void record(String operation, long durationNanos, long rows, long bytes, boolean failed) {
+        operations.computeIfAbsent(operation, name -> new Operation())
+            .record(durationNanos / 1_000_000, rows, bytes, failed);
+    }
+
+    // Insert timestamp to listener callback; includes any clock difference between the devices
+    public void recordRealtimeDelivery(long latencyMillis) {
+        operations.computeIfAbsent(REALTIME_DELIVERY, name -> new Operation())
+            .record(Math.max(0, latencyMillis), 1, 0, false);
+    }
+
+    public void reset() {
+        operations.clear();
+        sinceMillis = System.currentTimeMillis();
+    }
+
+    public List<Snapshot> snapshot() {
+        List<Snapshot> result = new ArrayList<>();
+        for (Map.Entry<String, Operation> entry : new TreeMap<>(operations).entrySet()) {
+            result.add(entry.getValue().snapshot(entry.getKey()));
+        }
+        return result;
+    }
+
+    // Plain-text table for the debug screen, dumpsys and bug reports
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        long elapsedSeconds = (System.currentTimeMillis() - sinceMillis) / 1000;
+        out.append(String.format(Locale.US, "Supabase metrics over the last %ds%n", elapsedSeconds));
+        List<Snapshot> snapshots = snapshot();
+        if (snapshots.isEmpty()) {
+            out.append("No calls recorded yet\n");
+        }
+        for (Snapshot s : snapshots) {
+            out.append(String.format(Locale.US,
+                "%s%n  calls %d, errors %d (%.1f%%)%n  latency ms p50 %d, p95 %d, p99 %d, max %d%n"
+                    + "  rows %d (%.1f/call), bytes %d (%.0f/call)%n",
+                s.name, s.count, s.errors, s.errorRate() * 100,
+                s.p50Millis, s.p95Millis, s.p99Millis, s.maxMillis,
+                s.rows, s.count > 0 ? (double) s.rows / s.count : 0,
+                s.bytes, s.count > 0 ? (double) s.bytes / s.count : 0));
+        }
+        return out.toString();
+    }
+
+    public static final class Snapshot {
+        public final String name;
+        public final long count;
+        public final long errors;
+        public final long rows;
+        public final long bytes;
+        public final long p50Millis;
+        public final long p95Millis;
+        public final long p99Millis;
+        public final long maxMillis;
+
+        Snapshot(String name, long count, long errors, long rows, long bytes,
+                 long p50Millis, long p95Millis, long p99Millis, long maxMillis) {
+            this.name = name;
+            this.count = count;
+            this.errors = errors;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.p50Millis = p50Millis;
+            this.p95Millis = p95Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public double errorRate() {
+            return count > 0 ? (double) errors / count : 0;
+        }
+    }
+
+    private static final class Operation {
+        private final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        private long count;
+        private long errors;
+        private long rows;
+        private long bytes;
+        private long maxMillis;
+
+        synchronized void record(long millis, long rows, long bytes, boolean failed) {
+            buckets[bucketFor(millis)]++;
+            count++;
+            if (failed) errors++;
+            this.rows += rows;
+            this.bytes += bytes;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        synchronized Snapshot snapshot(String name) {
+            return new Snapshot(name, count, errors, rows, bytes,
+                percentile(0.50), percentile(0.95), percentile(0.99), maxMillis);
+        }
+
+        // Upper bound of the bucket holding the percentile, capped at the largest value seen
+        private long percentile(double fraction) {
+            if (count == 0) return 0;
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target) {
+                    return i < BUCKET_BOUNDS_MS.length ? Math.min(BUCKET_BOUNDS_MS[i], maxMillis) : maxMillis;
+                }
+            }
+            return maxMillis;
+        }
+
+        private static int bucketFor(long millis) {
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                if (millis <= BUCKET_BOUNDS_MS[i]) return i;
+            }
+            return BUCKET_BOUNDS_MS.length;
+        }
+    }
+}
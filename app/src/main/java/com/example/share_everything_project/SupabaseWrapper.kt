@@ -2,71 +2,206 @@ package com.example.share_everything_project
 
 import io.github.jan.supabase.SupabaseClient
 import io.github.jan.supabase.postgrest.postgrest
+import io.github.jan.supabase.postgrest.rpc
 import io.github.jan.supabase.postgrest.query.Order
-import io.github.jan.supabase.realtime.RealtimeChannel
 import io.github.jan.supabase.realtime.*
 import io.github.jan.supabase.storage.storage
+import io.ktor.utils.io.jvm.javaio.toByteReadChannel
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.future.future
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.flow.onEach
-import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.runBlocking
-import org.json.JSONObject
-import org.json.JSONArray
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.put
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.CompletableFuture
 
 class SupabaseWrapper {
+    // Opens the upload source positioned at offset, so an interrupted upload can resume
+    fun interface StreamOpener {
+        @Throws(IOException::class)
+        fun open(offset: Long): InputStream
+    }
+
+    fun interface UploadProgressListener {
+        fun onProgress(bytesUploaded: Long, totalBytes: Long)
+    }
+
+    // Filled in by a measured call with what it returned or sent
+    class CallStats {
+        var rows = 0L
+        var bytes = 0L
+    }
+
     companion object {
+        private const val TAG = "SupabaseWrapper"
+
+        // Parent of every coroutine the wrapper and RealtimeMultiplexer start, so nothing runs
+        // in an orphan scope; for work that must outlive the screen that started it
+        private val sessionJob = SupervisorJob()
+        private val sessionScope = CoroutineScope(sessionJob + Dispatchers.IO)
+
+        @JvmStatic
+        fun sessionScope(): CoroutineScope = sessionScope
+
+        // Coroutines still running in the session scope, including child scopes; used by leak tests
         @JvmStatic
-        fun fetchAllUserConversations(client: SupabaseClient, username: String): JSONArray {
+        fun activeSessionJobCount(): Int = countActive(sessionJob)
+
+        private fun countActive(job: Job): Int =
+            job.children.sumOf { (if (it.isActive) 1 else 0) + countActive(it) }
+
+        // Records the call's latency, sizes and outcome in SupabaseMetrics; cancellation is not a failure
+        private inline fun <T> measured(operation: String, block: (CallStats) -> T): T {
+            val stats = CallStats()
+            val start = System.nanoTime()
             try {
-                // Fetch all messages where the user is either sender or receiver
-                val response = runBlocking(Dispatchers.IO) {
-                    client.postgrest["messages"]
-                        .select {
-                            filter {
+                val result = block(stats)
+                SupabaseMetrics.getInstance().record(operation, System.nanoTime() - start, stats.rows, stats.bytes, false)
+                return result
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Throwable) {
+                SupabaseMetrics.getInstance().record(operation, System.nanoTime() - start, 0, stats.bytes, true)
+                AppLog.w(TAG, "$operation failed: ${e.message}")
+                throw e
+            }
+        }
+
+        // A scope whose work is cancelled with parent, or on its own by cancelling the returned scope;
+        // lets Java callers cancel one load without cancelling the whole viewModelScope
+        @JvmStatic
+        fun newChildScope(parent: CoroutineScope): CoroutineScope =
+            CoroutineScope(parent.coroutineContext + SupervisorJob(parent.coroutineContext[Job]))
+
+        // One row per peer with the latest message and unread count, newest first,
+        // computed on the server so the user's history is never downloaded
+        suspend fun fetchConversationSummaries(client: SupabaseClient, username: String): List<ConversationSummary> {
+            val response = measured("fetchConversationSummaries") { stats ->
+                val result = client.postgrest
+                    .rpc("conversation_summaries", buildJsonObject { put("p_username", username) })
+                stats.bytes = result.data.length.toLong()
+                result.decodeList<ConversationSummaryData>().also { stats.rows = it.size.toLong() }
+            }
+
+            AppLog.d(TAG) { "Supabase conversation summaries response size: ${response.size}" }
+
+            return response.map { it.toSummary() }
+        }
+
+        @JvmStatic
+        fun fetchConversationSummariesAsync(
+            scope: CoroutineScope,
+            client: SupabaseClient,
+            username: String
+        ): CompletableFuture<List<ConversationSummary>> = scope.future {
+            fetchConversationSummaries(client, username)
+        }
+
+        // Records that username has read everything from peer up to lastReadTimestamp
+        suspend fun markConversationRead(client: SupabaseClient, username: String, peer: String, lastReadTimestamp: Long) {
+            measured("markConversationRead") { stats ->
+                // The function keeps the greater of the stored and the new marker, see 004_mark_conversation_read.sql
+                client.postgrest.rpc("mark_conversation_read", buildJsonObject {
+                    put("p_username", username)
+                    put("p_peer", peer)
+                    put("p_last_read_timestamp", lastReadTimestamp)
+                })
+                stats.rows = 1
+            }
+        }
+
+        // Runs in the background scope, so closing the chat does not cancel it
+        @JvmStatic
+        fun markConversationReadAsync(
+            client: SupabaseClient,
+            username: String,
+            peer: String,
+            lastReadTimestamp: Long
+        ): CompletableFuture<Unit> = sessionScope.future {
+            markConversationRead(client, username, peer, lastReadTimestamp)
+        }
+
+        // Keyset delta: up to limit messages strictly newer than the (afterTimestamp, afterId)
+        // cursor, oldest first; used to top up the local cache and to catch up after a reconnect
+        suspend fun fetchMessagesAfter(
+            client: SupabaseClient,
+            user1: String,
+            user2: String,
+            afterTimestamp: Long,
+            afterId: Long,
+            limit: Long
+        ): List<Message> {
+            val response = measured("fetchMessagesAfter") { stats ->
+                val result = client.postgrest["messages"]
+                    .select {
+                        filter {
+                            and {
                                 or {
-                                    eq("sender", username)
-                                    eq("receiver", username)
+                                    and {
+                                        eq("sender", user1)
+                                        eq("receiver", user2)
+                                    }
+                                    and {
+                                        eq("sender", user2)
+                                        eq("receiver", user1)
+                                    }
+                                }
+                                or {
+                                    gt("timestamp", afterTimestamp)
+                                    and {
+                                        eq("timestamp", afterTimestamp)
+                                        gt("id", afterId)
+                                    }
                                 }
                             }
-                            order("timestamp", Order.DESCENDING)
                         }
-                        .decodeList<MessageData>()
-                }
-                
-                println("Supabase all conversations response size: ${response.size}")
-                
-                // Convert response to JSONArray
-                val jsonArray = JSONArray()
-                response.forEach { messageData ->
-                    println("Processing conversation message: sender=${messageData.sender}, receiver=${messageData.receiver}")
-                    val jsonObject = JSONObject().apply {
-                        put("id", messageData.id)
-                        put("sender", messageData.sender)
-                        put("receiver", messageData.receiver)
-                        put("content", messageData.content)
-                        put("type", messageData.type)
-                        put("timestamp", messageData.timestamp)
-                        put("created_at", messageData.createdAt)
+                        order("timestamp", Order.ASCENDING)
+                        order("id", Order.ASCENDING)
+                        limit(limit)
                     }
-                    jsonArray.put(jsonObject)
-                }
-                return jsonArray
-            } catch (e: Exception) {
-                e.printStackTrace()
-                return JSONArray()
+                stats.bytes = result.data.length.toLong()
+                result.decodeList<MessageData>().also { stats.rows = it.size.toLong() }
             }
+
+            AppLog.d(TAG) { "Supabase delta response size: ${response.size} (after $afterTimestamp/$afterId)" }
+
+            return response.map { it.toMessage() }
         }
 
         @JvmStatic
-        fun fetchMessages(client: SupabaseClient, user1: String, user2: String): JSONArray {
-            try {
-                // Fetch messages from Supabase
-                val response = runBlocking(Dispatchers.IO) {
-                    client.postgrest["messages"]
-                        .select {
-                            filter {
+        fun fetchMessagesAfterAsync(
+            scope: CoroutineScope,
+            client: SupabaseClient,
+            user1: String,
+            user2: String,
+            afterTimestamp: Long,
+            afterId: Long,
+            limit: Long
+        ): CompletableFuture<List<Message>> = scope.future {
+            fetchMessagesAfter(client, user1, user2, afterTimestamp, afterId, limit)
+        }
+
+        // Keyset-paginated history: the page of messages strictly older than the
+        // (beforeTimestamp, beforeId) cursor, returned oldest first
+        suspend fun fetchMessagesPage(
+            client: SupabaseClient,
+            user1: String,
+            user2: String,
+            beforeTimestamp: Long,
+            beforeId: Long,
+            limit: Long
+        ): List<Message> {
+            val response = measured("fetchMessagesPage") { stats ->
+                val result = client.postgrest["messages"]
+                    .select {
+                        filter {
+                            and {
                                 or {
                                     and {
                                         eq("sender", user1)
@@ -77,161 +212,133 @@ class SupabaseWrapper {
                                         eq("receiver", user1)
                                     }
                                 }
+                                or {
+                                    lt("timestamp", beforeTimestamp)
+                                    and {
+                                        eq("timestamp", beforeTimestamp)
+                                        lt("id", beforeId)
+                                    }
+                                }
                             }
-                            order("timestamp", Order.ASCENDING)
                         }
-                        .decodeList<MessageData>()
-                }
-                
-                println("Supabase conversation response size: ${response.size}")
-                
-                // Convert response to JSONArray
-                val jsonArray = JSONArray()
-                response.forEach { messageData ->
-                    println("Processing message: sender=${messageData.sender}, receiver=${messageData.receiver}")
-                    val jsonObject = JSONObject().apply {
-                        put("id", messageData.id)
-                        put("sender", messageData.sender)
-                        put("receiver", messageData.receiver)
-                        put("content", messageData.content)
-                        put("type", messageData.type)
-                        put("timestamp", messageData.timestamp)
-                        put("created_at", messageData.createdAt)
+                        order("timestamp", Order.DESCENDING)
+                        order("id", Order.DESCENDING)
+                        limit(limit)
                     }
-                    jsonArray.put(jsonObject)
-                }
-                return jsonArray
-            } catch (e: Exception) {
-                e.printStackTrace()
-                return JSONArray()
+                stats.bytes = result.data.length.toLong()
+                result.decodeList<MessageData>().also { stats.rows = it.size.toLong() }
             }
+
+            AppLog.d(TAG) { "Supabase page response size: ${response.size} (before $beforeTimestamp/$beforeId)" }
+
+            return response.asReversed().map { it.toMessage() }
+        }
+
+        @JvmStatic
+        fun fetchMessagesPageAsync(
+            scope: CoroutineScope,
+            client: SupabaseClient,
+            user1: String,
+            user2: String,
+            beforeTimestamp: Long,
+            beforeId: Long,
+            limit: Long
+        ): CompletableFuture<List<Message>> = scope.future {
+            fetchMessagesPage(client, user1, user2, beforeTimestamp, beforeId, limit)
         }
 
+        // Writes the messages in one request, in list order; throws if the insert fails.
+        // Rows whose client_id already exists are skipped, so replaying a batch is safe.
+        // Blocking on purpose: MessageOutbox calls it from its own single flush thread.
         @JvmStatic
-        fun insertMessage(client: SupabaseClient, messageJson: JSONObject) {
-            CoroutineScope(Dispatchers.IO).launch {
-                try {
-                    // Convert JSONObject to MessageData
-                    val messageData = MessageData(
-                        sender = messageJson.getString("sender"),
-                        receiver = messageJson.getString("receiver"),
-                        content = messageJson.getString("content"),
-                        type = messageJson.getString("type"),
-                        timestamp = messageJson.getLong("timestamp"),
-                        createdAt = messageJson.optString("created_at", null)
-                    )
-
-                    // Insert a list containing the single message
+        fun insertMessages(client: SupabaseClient, messages: List<Message>) {
+            runBlocking(Dispatchers.IO) {
+                measured("insertMessages") { stats ->
+                    stats.rows = messages.size.toLong()
+                    stats.bytes = messages.sumOf { it.content.length.toLong() }
                     client.postgrest
                         .from("messages")
-                        .insert(listOf(messageData))
-                } catch (e: Exception) {
-                    e.printStackTrace()
-                    throw e
+                        .upsert(
+                            messages.map { MessageData.fromMessage(it) },
+                            onConflict = "client_id",
+                            ignoreDuplicates = true
+                        )
                 }
             }
         }
 
+        // Closes the client's realtime socket, for clients that do not live as long as the app
         @JvmStatic
-        fun setupRealtimeSubscription(
-            client: SupabaseClient,
-            user1: String,
-            user2: String,
-            onMessageReceived: (JSONObject) -> Unit
-        ): RealtimeChannel {
-            val channel = client.realtime.channel("public:messages")
-            println("Setting up realtime subscription for users: $user1 and $user2")
-
-            // Set up the postgres change flow for INSERT events
-            val changeFlow = channel.postgresChangeFlow<PostgresAction.Insert>(schema = "public") {
-                table = "messages"
-            }
+        fun disconnectRealtime(client: SupabaseClient) {
+            client.realtime.disconnect()
+        }
 
-            // Subscribe to the channel first
-            CoroutineScope(Dispatchers.IO).launch {
-                try {
-                    println("Subscribing to realtime channel")
-                    channel.subscribe()
-                    println("Successfully subscribed to realtime channel")
-                } catch (e: Exception) {
-                    println("Error subscribing to channel: ${e.message}")
-                    e.printStackTrace()
-                }
-            }
+        // Uploads through the resumable (TUS) endpoint, reading the source one chunk at a time
+        // so memory stays bounded regardless of file size. Blocks until the upload completes.
+        @JvmStatic
+        fun uploadFileStreaming(
+            client: SupabaseClient,
+            bucket: String,
+            fileName: String,
+            source: String,
+            size: Long,
+            opener: StreamOpener,
+            progressListener: UploadProgressListener?
+        ) {
+            runBlocking(Dispatchers.IO) {
+                measured("uploadFileStreaming") { stats ->
+                    stats.bytes = size
+                    val upload = client.storage
+                        .from(bucket)
+                        .resumable
+                        .createOrContinueUpload(
+                            channel = { offset -> opener.open(offset).toByteReadChannel() },
+                            source = source,
+                            size = size,
+                            path = fileName
+                        )
 
-            // Collect the flow and filter messages between the two users
-            changeFlow.onEach { insertAction ->
-                try {
-                    val record = insertAction.record
-                    println("Received realtime message: $record")
-                    
-                    // Properly access the record fields using the correct type casting
-                    val sender = record["sender"]?.toString()?.trim('"')
-                    val receiver = record["receiver"]?.toString()?.trim('"')
-                    val content = record["content"]?.toString()?.trim('"')
-                    val type = record["type"]?.toString()?.trim('"')
-                    val timestamp = (record["timestamp"] as? Number)?.toLong()
-                    val id = record["id"]?.toString()?.trim('"')
-                    val createdAt = record["created_at"]?.toString()?.trim('"')
-
-                    println("Parsed message fields - Sender: $sender, Receiver: $receiver")
-
-                    // Check if the message matches our filter
-                    if ((sender == user1 && receiver == user2) ||
-                        (sender == user2 && receiver == user1)
-                    ) {
-                        println("Message matches filter - Processing: sender=$sender, receiver=$receiver")
-
-                        // Convert the record to JSONObject with all fields
-                        val messageJson = JSONObject().apply {
-                            put("id", id)
-                            put("sender", sender)
-                            put("receiver", receiver)
-                            put("content", content)
-                            put("type", type)
-                            put("timestamp", timestamp ?: System.currentTimeMillis())  // Use current time as fallback
-                            put("created_at", createdAt)
+                    val progressJob = launch {
+                        upload.stateFlow.collect { state ->
+                            progressListener?.onProgress((state.progress * size).toLong(), size)
                         }
-
-                        println("Sending message to callback: $messageJson")
-                        onMessageReceived(messageJson)
-                    } else {
-                        println("Message does not match filter - Ignoring: sender=$sender, receiver=$receiver")
                     }
-                } catch (e: Exception) {
-                    println("Error in realtime subscription: ${e.message}")
-                    e.printStackTrace()
+                    try {
+                        upload.startOrResumeUploading()
+                        progressListener?.onProgress(size, size)
+                    } finally {
+                        progressJob.cancel()
+                    }
                 }
-            }.launchIn(CoroutineScope(Dispatchers.IO))
-
-            return channel
+            }
         }
 
+        // Lists the parent folder filtered by name; storage has no cheaper existence check
         @JvmStatic
-        fun unsubscribeFromChannel(channel: RealtimeChannel) {
-            CoroutineScope(Dispatchers.IO).launch {
-                try {
-                    println("Unsubscribing from channel")
-                    channel.unsubscribe()
-                    println("Successfully unsubscribed from channel")
-                } catch (e: Exception) {
-                    println("Error unsubscribing from channel: ${e.message}")
-                    e.printStackTrace()
+        fun fileExists(client: SupabaseClient, bucket: String, path: String): Boolean {
+            val folder = path.substringBeforeLast('/', "")
+            val name = path.substringAfterLast('/')
+            return runBlocking(Dispatchers.IO) {
+                measured("fileExists") { stats ->
+                    client.storage
+                        .from(bucket)
+                        .list(folder) { search = name }
+                        .also { stats.rows = it.size.toLong() }
+                        .any { it.name == name }
                 }
             }
         }
 
+        // One-shot upload for small payloads such as thumbnails; blocks like uploadFileStreaming
         @JvmStatic
-        fun uploadFile(
-            client: SupabaseClient,
-            bucket: String,
-            fileName: String,
-            fileBytes: ByteArray
-        ) {
-            CoroutineScope(Dispatchers.IO).launch {
-                client.storage
-                    .from(bucket)
-                    .upload(fileName, fileBytes)
+        fun uploadBytes(client: SupabaseClient, bucket: String, path: String, data: ByteArray) {
+            runBlocking(Dispatchers.IO) {
+                measured("uploadBytes") { stats ->
+                    stats.bytes = data.size.toLong()
+                    client.storage
+                        .from(bucket)
+                        .upload(path, data, upsert = true)
+                }
             }
         }
 
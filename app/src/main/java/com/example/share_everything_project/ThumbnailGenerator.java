@@ -0,0 +1,123 @@
+package com.example.share_everything_project;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Size;
+import android.webkit.MimeTypeMap;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Builds the small JPEG preview uploaded next to image and video files, so chat rows
+ * never have to download or decode the full-resolution original.
+ */
+public final class ThumbnailGenerator {
+    private static final String TAG = "ThumbnailGenerator";
+    // Longest edge of a thumbnail; covers MessageAdapter's 200dp preview up to xxhdpi
+    static final int MAX_EDGE_PX = 640;
+    private static final int JPEG_QUALITY = 80;
+
+    private ThumbnailGenerator() {
+    }
+
+    public static boolean isMedia(String mimeType) {
+        return mimeType != null && (mimeType.startsWith("image/") || mimeType.startsWith("video/"));
+    }
+
+    public static String getMimeType(Context context, Uri uri) {
+        String mimeType = context.getContentResolver().getType(uri);
+        if (mimeType == null) {
+            String extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase());
+        }
+        return mimeType;
+    }
+
+    // JPEG bytes of the thumbnail, or null if the file is not an image or video
+    public static byte[] generate(Context context, Uri uri, String mimeType) throws IOException {
+        if (!isMedia(mimeType)) return null;
+
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            // Uses the provider's cached thumbnail when there is one and handles EXIF rotation
+            bitmap = context.getContentResolver().loadThumbnail(uri, new Size(MAX_EDGE_PX, MAX_EDGE_PX), null);
+        } else if (mimeType.startsWith("image/")) {
+            bitmap = decodeImage(context, uri);
+        } else {
+            bitmap = decodeVideoFrame(context, uri);
+        }
+        if (bitmap == null) return null;
+
+        Bitmap scaled = scaleToFit(bitmap);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        if (scaled != bitmap) scaled.recycle();
+        bitmap.recycle();
+        AppLog.d(TAG, "Generated " + out.size() + " byte thumbnail for " + mimeType);
+        return out.toByteArray();
+    }
+
+    // Reads only the bounds first, then decodes at the largest power-of-two reduction that still fits
+    private static Bitmap decodeImage(Context context, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = openInputStream(context, uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        int sampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / (sampleSize * 2) >= MAX_EDGE_PX) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        try (InputStream in = openInputStream(context, uri)) {
+            return BitmapFactory.decodeStream(in, null, options);
+        }
+    }
+
+    private static Bitmap decodeVideoFrame(Context context, Uri uri) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(context, uri);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) {
+                return retriever.getScaledFrameAtTime(
+                    -1, MediaMetadataRetriever.OPTION_CLOSEST_SYNC, MAX_EDGE_PX, MAX_EDGE_PX);
+            }
+            return retriever.getFrameAtTime();
+        } catch (RuntimeException e) {
+            AppLog.w(TAG, "Could not read a frame from " + uri, e);
+            return null;
+        } finally {
+            try {
+                retriever.release();
+            } catch (Exception ignored) {
+                // release() only declares IOException from API 29 on
+            }
+        }
+    }
+
+    private static Bitmap scaleToFit(Bitmap bitmap) {
+        int longestEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longestEdge <= MAX_EDGE_PX) return bitmap;
+        float scale = (float) MAX_EDGE_PX / longestEdge;
+        return Bitmap.createScaledBitmap(
+            bitmap,
+            Math.max(1, Math.round(bitmap.getWidth() * scale)),
+            Math.max(1, Math.round(bitmap.getHeight() * scale)),
+            true);
+    }
+
+    private static InputStream openInputStream(Context context, Uri uri) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(uri);
+        if (in == null) throw new IOException("Could not open " + uri);
+        return in;
+    }
+}
@@ -0,0 +1,477 @@
+package com.example.share_everything_project;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.OpenableColumns;
+import io.github.jan.supabase.SupabaseClient;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads picked files with bounded concurrency, smallest first, with cancellation and
+ * retry with exponential backoff. Owned by ShareEverythingApp so uploads keep going across
+ * Activity recreation. File messages of one batch are sent in the order the files were picked.
+ */
+public class UploadScheduler {
+    private static final String TAG = "UploadScheduler";
+    static final String BUCKET = "chat-files";
+    // Objects are named by the SHA-256 of their bytes, so the same file is only stored once
+    static final String CONTENT_PREFIX = "sha256/";
+    private static final String THUMBNAIL_PREFIX = "thumbnails/";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 3;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long INITIAL_BACKOFF_MS = 1000;
+
+    public interface Listener {
+        void onProgress(Upload upload, long bytesUploaded, long totalBytes);
+        void onFinished(Upload upload, String fileUrl);
+        void onFailed(Upload upload, Exception error);
+    }
+
+    // One file to upload; sorts smallest first, then in submission order
+    public static final class Upload implements Comparable<Upload> {
+        private final long id;
+        private final Batch batch;
+        private final int position;
+        private final Uri uri;
+        // Looked up off the main thread before the upload is queued, -1 until then or if unknown
+        private volatile long size = -1;
+        private volatile boolean cancelled;
+        // Thread running the upload; guarded by the upload, so cancel() never interrupts a
+        // thread that has already moved on to another upload
+        private Thread worker;
+        private int attempts;
+        // Set once computed or uploaded, so retries do not redo the work
+        private String contentHash;
+        private String thumbnailUrl;
+
+        private Upload(long id, Batch batch, int position, Uri uri) {
+            this.id = id;
+            this.batch = batch;
+            this.position = position;
+            this.uri = uri;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getSender() {
+            return batch.sender;
+        }
+
+        public String getReceiver() {
+            return batch.receiver;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public int compareTo(Upload other) {
+            int result = Long.compare(size, other.size);
+            return result != 0 ? result : Long.compare(id, other.id);
+        }
+    }
+
+    // Where a finished upload ended up; thumbnailUrl is null for non-media files
+    private static final class UploadResult {
+        final String fileUrl;
+        final String thumbnailUrl;
+
+        UploadResult(String fileUrl, String thumbnailUrl) {
+            this.fileUrl = fileUrl;
+            this.thumbnailUrl = thumbnailUrl;
+        }
+    }
+
+    // Files picked together; their messages are released in pick order
+    private static final class Batch {
+        final String sender;
+        final String receiver;
+        final String messageText;
+        final int count;
+        // Position -> upload result, or null for a failed/cancelled upload
+        final Map<Integer, UploadResult> completed = new TreeMap<>();
+        int nextToSend;
+        boolean textSent;
+
+        Batch(String sender, String receiver, String messageText, int count) {
+            this.sender = sender;
+            this.receiver = receiver;
+            this.messageText = messageText;
+            this.count = count;
+        }
+    }
+
+    private final Context context;
+    // Uploads waiting for a worker, smallest first. Workers take from here themselves, so the
+    // order holds for the first uploads too, which the pool would otherwise start directly
+    private final PriorityBlockingQueue<Upload> pending = new PriorityBlockingQueue<>();
+    private final ThreadPoolExecutor executor;
+    // Sizes newly picked files and schedules retries, off the main thread
+    private final ScheduledExecutorService intakeExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<Long, Upload> uploads = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong nextId = new AtomicLong();
+    // Object paths known to be in the bucket, to skip the existence check for repeat sends
+    private final Set<String> storedObjects = ConcurrentHashMap.newKeySet();
+
+    public UploadScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.executor = new ThreadPoolExecutor(
+            DEFAULT_MAX_CONCURRENT_UPLOADS,
+            DEFAULT_MAX_CONCURRENT_UPLOADS,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void setMaxConcurrentUploads(int maxConcurrentUploads) {
+        if (maxConcurrentUploads < 1) throw new IllegalArgumentException("At least one upload must be allowed");
+        if (maxConcurrentUploads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxConcurrentUploads);
+            executor.setCorePoolSize(maxConcurrentUploads);
+        } else {
+            executor.setCorePoolSize(maxConcurrentUploads);
+            executor.setMaximumPoolSize(maxConcurrentUploads);
+        }
+    }
+
+    // Listeners are called on the main thread
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Queues the files; messageText, if any, is sent once before the batch's file messages.
+    // Sizes are read from the content provider on the intake thread, so this never blocks.
+    public List<Upload> enqueue(String sender, String receiver, List<Uri> uris, String messageText) {
+        Batch batch = new Batch(sender, receiver, messageText, uris.size());
+        List<Upload> queued = new ArrayList<>();
+        for (int i = 0; i < uris.size(); i++) {
+            Upload upload = new Upload(nextId.incrementAndGet(), batch, i, uris.get(i));
+            uploads.put(upload.id, upload);
+            queued.add(upload);
+        }
+        intakeExecutor.execute(() -> {
+            // All sizes first, so the smallest file of the batch is also the first to start
+            for (Upload upload : queued) {
+                upload.size = getFileSize(upload.uri);
+            }
+            for (Upload upload : queued) {
+                if (upload.cancelled) {
+                    complete(upload, null, new InterruptedException("Upload cancelled"));
+                } else {
+                    schedule(upload);
+                }
+            }
+            AppLog.d(TAG, "Queued " + queued.size() + " uploads for " + receiver);
+        });
+        return queued;
+    }
+
+    // One worker run per queued upload; each takes whichever pending upload is smallest then
+    private void schedule(Upload upload) {
+        pending.add(upload);
+        executor.execute(this::runNext);
+    }
+
+    private void runNext() {
+        Upload upload = pending.poll();
+        // Null when the upload this run was started for was cancelled in the queue
+        if (upload != null) runUpload(upload);
+    }
+
+    public void cancel(long uploadId) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) return;
+
+        upload.cancelled = true;
+        if (pending.remove(upload)) {
+            // Never started, report it straight away
+            complete(upload, null, new InterruptedException("Upload cancelled"));
+            return;
+        }
+        synchronized (upload) {
+            if (upload.worker != null) {
+                // Interrupting the blocked upload cancels its coroutine
+                upload.worker.interrupt();
+            }
+        }
+        // Otherwise it is still being sized, or between retries, and sees the flag when it runs
+    }
+
+    public void cancelConversation(String sender, String receiver) {
+        for (Upload upload : uploads.values()) {
+            if (upload.getSender().equals(sender) && upload.getReceiver().equals(receiver)) {
+                cancel(upload.id);
+            }
+        }
+    }
+
+    public boolean hasPendingUploads(String sender, String receiver) {
+        for (Upload upload : uploads.values()) {
+            if (upload.getSender().equals(sender) && upload.getReceiver().equals(receiver)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void runUpload(Upload upload) {
+        synchronized (upload) {
+            upload.worker = Thread.currentThread();
+        }
+        upload.attempts++;
+        try {
+            if (upload.cancelled) throw new InterruptedException("Upload cancelled");
+            if (upload.size < 0) throw new IOException("Could not determine file size");
+
+            var client = SupabaseClientProvider.INSTANCE.getClient();
+            if (upload.contentHash == null) {
+                upload.contentHash = hashFile(upload);
+            }
+            String fileName = CONTENT_PREFIX + upload.contentHash + getExtension(getFileName(upload.uri));
+            if (upload.thumbnailUrl == null) {
+                upload.thumbnailUrl = uploadThumbnail(client, upload.uri, upload.contentHash);
+            }
+            if (upload.cancelled) throw new InterruptedException("Upload cancelled");
+
+            if (isStored(client, fileName)) {
+                // Forwarded or re-sent file, reuse the stored copy
+                AppLog.d(TAG, "Upload " + upload.id + " already stored as " + fileName + ", skipping");
+                notifyProgress(upload, upload.size, upload.size);
+            } else {
+                SupabaseWrapper.uploadFileStreaming(
+                    client,
+                    BUCKET,
+                    fileName,
+                    upload.uri.toString(),
+                    upload.size,
+                    offset -> openInputStreamAt(upload.uri, offset),
+                    (bytesUploaded, totalBytes) -> notifyProgress(upload, bytesUploaded, totalBytes)
+                );
+                storedObjects.add(fileName);
+            }
+            complete(upload, new UploadResult(SupabaseWrapper.getPublicUrl(client, BUCKET, fileName),
+                upload.thumbnailUrl), null);
+        } catch (Exception e) {
+            if (upload.cancelled) {
+                complete(upload, null, new InterruptedException("Upload cancelled"));
+            } else if (upload.attempts < MAX_ATTEMPTS) {
+                long delay = INITIAL_BACKOFF_MS << (upload.attempts - 1);
+                AppLog.w(TAG, "Upload " + upload.id + " failed, retrying in " + delay + "ms", e);
+                intakeExecutor.schedule(() -> {
+                    if (upload.cancelled) {
+                        complete(upload, null, new InterruptedException("Upload cancelled"));
+                    } else {
+                        schedule(upload);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                AppLog.e(TAG, "Upload " + upload.id + " failed after " + upload.attempts + " attempts", e);
+                complete(upload, null, e);
+            }
+        } finally {
+            // cancel() only interrupts under this lock while worker is set, so once it is cleared
+            // no interrupt for this upload can reach the next task on this thread
+            synchronized (upload) {
+                upload.worker = null;
+                Thread.interrupted();
+            }
+        }
+    }
+
+    // A missing thumbnail only costs the preview, so failures here never fail the upload
+    private String uploadThumbnail(SupabaseClient client, Uri uri, String contentHash) {
+        try {
+            String path = THUMBNAIL_PREFIX + contentHash + ".jpg";
+            if (!isStored(client, path)) {
+                String mimeType = ThumbnailGenerator.getMimeType(context, uri);
+                byte[] thumbnail = ThumbnailGenerator.generate(context, uri, mimeType);
+                if (thumbnail == null) return null;
+
+                SupabaseWrapper.uploadBytes(client, BUCKET, path, thumbnail);
+                storedObjects.add(path);
+            }
+            return SupabaseWrapper.getPublicUrl(client, BUCKET, path);
+        } catch (Exception e) {
+            AppLog.w(TAG, "Could not create thumbnail for " + uri, e);
+            return null;
+        }
+    }
+
+    private boolean isStored(SupabaseClient client, String path) {
+        if (storedObjects.contains(path)) return true;
+        if (SupabaseWrapper.fileExists(client, BUCKET, path)) {
+            storedObjects.add(path);
+            return true;
+        }
+        return false;
+    }
+
+    // Streams the file through SHA-256; one extra local read instead of a redundant upload
+    private String hashFile(Upload upload) throws IOException, InterruptedException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream inputStream = openInputStreamAt(upload.uri, 0)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                if (upload.cancelled) throw new InterruptedException("Upload cancelled");
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void complete(Upload upload, UploadResult result, Exception error) {
+        if (uploads.remove(upload.id) == null) return;
+        String fileUrl = result != null ? result.fileUrl : null;
+
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                if (error == null) {
+                    listener.onFinished(upload, fileUrl);
+                } else {
+                    listener.onFailed(upload, error);
+                }
+            }
+        });
+        releaseInOrder(upload.batch, upload.position, result);
+    }
+
+    // Sends file messages for every upload whose predecessors in the batch have finished
+    private void releaseInOrder(Batch batch, int position, UploadResult result) {
+        List<UploadResult> ready = new ArrayList<>();
+        boolean sendText;
+        synchronized (batch) {
+            batch.completed.put(position, result);
+            while (batch.completed.containsKey(batch.nextToSend)) {
+                UploadResult next = batch.completed.remove(batch.nextToSend);
+                if (next != null) ready.add(next);
+                batch.nextToSend++;
+            }
+            sendText = !batch.textSent && batch.nextToSend > 0
+                && batch.messageText != null && !batch.messageText.isEmpty();
+            if (sendText) batch.textSent = true;
+        }
+
+        // The outbox keeps these in order and batches them with anything else being sent
+        MessageOutbox outbox = ShareEverythingApp.getInstance().getMessageOutbox();
+        if (sendText) {
+            outbox.send(buildMessage(batch, batch.messageText, "text"));
+        }
+        for (UploadResult uploaded : ready) {
+            outbox.send(buildMessage(batch, uploaded.fileUrl, "file").withThumbnailUrl(uploaded.thumbnailUrl));
+        }
+    }
+
+    private Message buildMessage(Batch batch, String content, String type) {
+        return new Message(batch.sender, batch.receiver, content, type, System.currentTimeMillis());
+    }
+
+    private void notifyProgress(Upload upload, long bytesUploaded, long totalBytes) {
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onProgress(upload, bytesUploaded, totalBytes);
+            }
+        });
+    }
+
+    // Size from the content provider; -1 when it does not report one
+    private long getFileSize(Uri uri) {
+        if ("content".equals(uri.getScheme())) {
+            try (Cursor cursor = context.getContentResolver().query(
+                    uri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst() && !cursor.isNull(0)) {
+                    return cursor.getLong(0);
+                }
+            }
+        } else if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+            return new File(uri.getPath()).length();
+        }
+        return -1;
+    }
+
+    private InputStream openInputStreamAt(Uri uri, long offset) throws IOException {
+        InputStream inputStream = context.getContentResolver().openInputStream(uri);
+        if (inputStream == null) throw new IOException("Could not open file input stream");
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {
+                inputStream.close();
+                throw new IOException("Could not seek to offset " + offset);
+            }
+            remaining -= skipped;
+        }
+        return inputStream;
+    }
+
+    // Kept on the object name so storage serves it with the right content type
+    private static String getExtension(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0 || dot == fileName.length() - 1) return "";
+        return fileName.substring(dot).toLowerCase(Locale.US);
+    }
+
+    @SuppressLint("Range")
+    private String getFileName(Uri uri) {
+        String result = null;
+        if ("content".equals(uri.getScheme())) {
+            try (Cursor cursor = context.getContentResolver().query(uri, null, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    result = cursor.getString(cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME));
+                }
+            }
+        }
+        if (result == null) {
+            result = uri.getPath();
+            int cut = result != null ? result.lastIndexOf('/') : -1;
+            if (cut != -1) {
+                result = result.substring(cut + 1);
+            }
+        }
+        return result != null ? result : "unknown_file";
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.share_everything_project;
+
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs MessagePipelineBenchmarks and RowAllocationBenchmarks with the GC profiler and fails if
+ * any benchmark allocates more per operation than its checked-in baseline allows (10% over by
+ * default). Bytes per operation do not depend on the machine, so this part runs in
+ * ./gradlew check through the benchmarkRegression task.
+ *
+ * Wall-clock scores only mean something on the machine that recorded them, so they are only
+ * compared with -DcheckBenchmarkTimes=true (30% over by default), which
+ *   ./gradlew :app:benchmarkTimeRegression
+ * sets. Add -PrecordBenchmarkBaselines=true to either task to write the measured scores back
+ * to the baselines file instead, after an intended change or on a new CI machine.
+ */
+public class BenchmarkRegressionTest {
+    private static final String BASELINES = "/benchmark-baselines.properties";
+    // Bytes allocated per operation, normalized by the GC profiler
+    private static final String ALLOCATION = "gc.alloc.rate.norm";
+
+    @Test
+    public void hotPathsStayWithinBaseline() throws Exception {
+        Assume.assumeTrue("Benchmarks only run with -PrunBenchmarks=true", Boolean.getBoolean("runBenchmarks"));
+
+        // Forking would need the Android unit test classpath rebuilt by hand; in-process is enough
+        // to catch regressions of the size the tolerance is meant for
+        Options options = new OptionsBuilder()
+            .include(MessagePipelineBenchmarks.class.getSimpleName())
+            .include(RowAllocationBenchmarks.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .forks(0)
+            .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        Properties baselines = new Properties();
+        try (InputStream in = getClass().getResourceAsStream(BASELINES)) {
+            assertNotNull("Missing " + BASELINES, in);
+            baselines.load(in);
+        }
+        boolean checkTimes = Boolean.getBoolean("checkBenchmarkTimes");
+        double timeTolerance = Double.parseDouble(System.getProperty("benchmarkTolerance", "0.3"));
+        double allocationTolerance = Double.parseDouble(System.getProperty("benchmarkAllocationTolerance", "0.1"));
+
+        Properties measured = new Properties();
+        List<String> regressions = new ArrayList<>();
+        for (RunResult result : results) {
+            String benchmark = result.getParams().getBenchmark();
+            String name = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+            Result<?> time = result.getPrimaryResult();
+            // Always recorded, only compared when asked to
+            check(name, time.getScoreUnit(), time.getScore(), timeTolerance, baselines, measured,
+                checkTimes ? regressions : new ArrayList<>());
+
+            Result<?> allocation = result.getSecondaryResults().get(ALLOCATION);
+            if (allocation == null) {
+                regressions.add(name + ": the GC profiler reported no allocation rate");
+                continue;
+            }
+            check(name + ".alloc", "B/op", allocation.getScore(), allocationTolerance, baselines, measured, regressions);
+        }
+
+        String recordTo = System.getProperty("recordBenchmarkBaselines");
+        if (recordTo != null && !recordTo.isEmpty()) {
+            try (OutputStream out = new FileOutputStream(recordTo)) {
+                measured.store(out, "Average time per op in each benchmark's unit (us for MessagePipelineBenchmarks, "
+                    + "ns per row for RowAllocationBenchmarks), and bytes allocated per op as <name>.alloc");
+            }
+            return;
+        }
+        assertTrue("Benchmark regressions:\n" + String.join("\n", regressions), regressions.isEmpty());
+    }
+
+    private static void check(String key, String unit, double score, double tolerance, Properties baselines,
+                              Properties measured, List<String> regressions) {
+        measured.setProperty(key, String.format(Locale.US, "%.3f", score));
+
+        String baseline = baselines.getProperty(key);
+        if (baseline == null) {
+            regressions.add(key + ": no baseline recorded");
+            return;
+        }
+        double limit = Double.parseDouble(baseline) * (1 + tolerance);
+        if (score > limit) {
+            regressions.add(String.format(Locale.US, "%s: %.3f %s, baseline %s, limit %.3f",
+                key, score, unit, baseline, limit));
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.share_everything_project;
+
+import android.os.Looper;
+import androidx.lifecycle.ViewModelProvider;
+import androidx.lifecycle.ViewModelStore;
+import com.example.share_everything_project.standin.SupabaseStandIn;
+import io.github.jan.supabase.SupabaseClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Opening and closing a chat must not leave anything behind: each ChatViewModel registers its
+ * listeners on the shared multiplexer and starts loads, and clearing it has to undo all of it.
+ * Runs the real ViewModel lifecycle against the local stand-in, never a hosted project.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ChatViewModelLeakTest {
+    private static final int CHATS = 1000;
+    private static final long TIMEOUT_MS = 10_000;
+
+    private SupabaseStandIn standIn;
+    private SupabaseClient client;
+
+    @Before
+    public void setUp() {
+        standIn = new SupabaseStandIn(0).start();
+        client = SupabaseClientProvider.create(standIn.getUrl(), SupabaseStandIn.ANON_KEY, false);
+        SupabaseClientProvider.setClientForTesting(client);
+    }
+
+    @After
+    public void tearDown() {
+        ShareEverythingApp.getInstance().signOut();
+        SupabaseWrapper.disconnectRealtime(client);
+        SupabaseClientProvider.setClientForTesting(null);
+        standIn.stop();
+    }
+
+    @Test
+    public void openingAndClosingChatsLeavesNoListenersOrCoroutines() throws InterruptedException {
+        List<Message> history = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            history.add(new Message(null, UUID.randomUUID().toString(), i % 2 == 0 ? "alice" : "bob",
+                i % 2 == 0 ? "bob" : "alice", "Message " + i, "text", 1_000L + i, null, null));
+        }
+        SupabaseWrapper.insertMessages(client, history);
+
+        for (int i = 0; i < CHATS; i++) {
+            // What the activity's ViewModelStore does when a chat is opened and then finished
+            ViewModelStore viewModelStore = new ViewModelStore();
+            ChatViewModel viewModel = new ViewModelProvider(viewModelStore, new ViewModelProvider.NewInstanceFactory())
+                .get(ChatViewModel.class);
+            viewModel.loadMessages("alice", "bob");
+            // Later chats find the history cached and are cleared while their delta is in flight
+            awaitMain(() -> !viewModel.getMessageList().isEmpty(), "chat " + i + " never showed messages");
+            viewModelStore.clear();
+        }
+
+        RealtimeMultiplexer realtime = ShareEverythingApp.getInstance().getRealtime("alice");
+        assertEquals(0, realtime.listenerCount());
+        // Only the loop that keeps the subscription up
+        assertEquals(1, realtime.activeCollectorCount());
+
+        ShareEverythingApp.getInstance().signOut();
+        awaitMain(() -> SupabaseWrapper.activeSessionJobCount() == 0,
+            "session scope still has " + SupabaseWrapper.activeSessionJobCount() + " coroutines");
+        assertEquals(0, SupabaseWrapper.activeSessionJobCount());
+    }
+
+    @Test
+    public void stopCancelsAllCollectors() throws InterruptedException {
+        RealtimeMultiplexer realtime = new RealtimeMultiplexer(client, "alice");
+        realtime.start();
+        realtime.addListener("bob", message -> { });
+        realtime.addGlobalListener(message -> { });
+
+        realtime.stop();
+
+        assertEquals(0, realtime.listenerCount());
+        awaitMain(() -> realtime.activeCollectorCount() == 0, "collectors survived stop()");
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    // Runs the main looper, where the ViewModel posts window updates, until condition holds
+    private static void awaitMain(Condition condition, String failure) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+        while (true) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (condition.isMet()) return;
+            if (System.nanoTime() > deadline) fail(failure);
+            Thread.sleep(1);
+        }
+    }
+}
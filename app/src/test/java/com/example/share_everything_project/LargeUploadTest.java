@@ -0,0 +1,107 @@
+package com.example.share_everything_project;
+
+import com.example.share_everything_project.standin.SupabaseStandIn;
+import io.github.jan.supabase.SupabaseClient;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams a generated 1 GB file through SupabaseWrapper.uploadFileStreaming into the local
+ * stand-in, in a JVM whose heap is far smaller than the file, and checks the stored object is
+ * complete and byte for byte what was sent. Skipped in normal test runs:
+ *   ./gradlew :app:largeUploadTest
+ * which runs it with -Xmx128m. -PlargeUpload.bytes changes the size.
+ */
+public class LargeUploadTest {
+    private static final long DEFAULT_SIZE = 1L << 30;
+
+    @Test
+    public void uploadLargerThanHeapFinishes() throws Exception {
+        Assume.assumeTrue("Large upload test only runs through largeUploadTest", Boolean.getBoolean("runLargeUpload"));
+
+        long size = Long.getLong("largeUpload.bytes", DEFAULT_SIZE);
+        assertTrue("Heap must be smaller than the upload, run with a small -Xmx",
+            Runtime.getRuntime().maxMemory() < size);
+
+        SupabaseStandIn standIn = new SupabaseStandIn(0, "127.0.0.1", 0L).start();
+        try {
+            SupabaseClient client = SupabaseClientProvider.create(standIn.getUrl(), SupabaseStandIn.ANON_KEY, false);
+            String path = "large-upload/" + size + ".bin";
+            AtomicLong uploaded = new AtomicLong();
+
+            SupabaseWrapper.uploadFileStreaming(client, UploadScheduler.BUCKET, path, "large-upload/" + size,
+                size, offset -> new GeneratedStream(offset, size),
+                (bytes, total) -> uploaded.accumulateAndGet(bytes, Math::max));
+
+            assertEquals("Progress did not reach the end", size, uploaded.get());
+
+            // The stand-in tags objects with their MD5, so a HEAD is enough to compare contents
+            HttpURLConnection connection = (HttpURLConnection) new URL(
+                SupabaseWrapper.getPublicUrl(client, UploadScheduler.BUCKET, path)).openConnection();
+            connection.setRequestMethod("HEAD");
+            try {
+                assertEquals(200, connection.getResponseCode());
+                assertEquals(size, connection.getContentLengthLong());
+                assertEquals("\"" + md5(size) + "\"", connection.getHeaderField("ETag"));
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            standIn.stop();
+        }
+    }
+
+    private static String md5(long size) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new GeneratedStream(0, size)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Bytes from offset to size of a pattern that depends only on the position, so a resumed
+    // upload reopening at any offset sends the same file
+    private static final class GeneratedStream extends InputStream {
+        private final long size;
+        private long position;
+
+        GeneratedStream(long offset, long size) {
+            this.position = offset;
+            this.size = size;
+        }
+
+        private static byte at(long position) {
+            return (byte) (position * 31 ^ (position >>> 11));
+        }
+
+        @Override
+        public int read() {
+            return position < size ? at(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= size) return -1;
+            int n = (int) Math.min(len, size - position);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = at(position++);
+            }
+            return n;
+        }
+    }
+}
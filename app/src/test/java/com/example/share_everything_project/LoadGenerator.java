@@ -0,0 +1,310 @@
+package com.example.share_everything_project;
+
+import io.github.jan.supabase.SupabaseClient;
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulates concurrent users of the app against a Supabase endpoint through the app's own
+ * SupabaseWrapper and RealtimeMultiplexer. Each user has its own client and realtime socket,
+ * and sends texts and files to the next user in a ring while receiving from the previous one.
+ * End-to-end latency runs from the sender starting the insert (or the upload, for files) to
+ * the receiver's realtime listener firing; all users share this JVM's clock.
+ */
+class LoadGenerator {
+    static final class Config {
+        int users = 20;
+        int messagesPerUser = 50;
+        int filesPerUser = 3;
+        int fileBytes = 256 * 1024;
+        // Pause between one user's sends, jittered by up to the same amount again
+        long sendIntervalMillis = 100;
+        // How long to wait for deliveries still in flight once every user is done sending
+        long drainTimeoutMillis = 10_000;
+        long warmUpTimeoutMillis = 30_000;
+    }
+
+    private static final String TEXT = "text";
+    private static final String FILE = "file";
+    private static final String WARM_UP = "load-test warm-up";
+
+    private final Config config;
+    // Sent but not yet delivered, by client id
+    private final ConcurrentHashMap<String, Pending> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> textLatencies = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Long> fileLatencies = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Long> uploadDurations = new ConcurrentLinkedQueue<>();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final Set<String> warmedUp = ConcurrentHashMap.newKeySet();
+
+    LoadGenerator(Config config) {
+        this.config = config;
+    }
+
+    Report run(String url, String key) throws Exception {
+        SupabaseMetrics.getInstance().reset();
+        List<SimulatedUser> users = new ArrayList<>();
+        for (int i = 0; i < config.users; i++) {
+            users.add(new SimulatedUser(i, SupabaseClientProvider.create(url, key, false)));
+        }
+        for (SimulatedUser user : users) {
+            user.start();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(config.users);
+        try {
+            warmUp(users);
+
+            long start = System.nanoTime();
+            List<Future<?>> running = new ArrayList<>();
+            for (SimulatedUser user : users) {
+                running.add(pool.submit(() -> {
+                    user.sendAll();
+                    return null;
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+            long sendingDone = System.nanoTime();
+
+            long drainDeadline = sendingDone + TimeUnit.MILLISECONDS.toNanos(config.drainTimeoutMillis);
+            while (!inFlight.isEmpty() && System.nanoTime() < drainDeadline) {
+                Thread.sleep(20);
+            }
+            return new Report(config, System.nanoTime() - start, new ArrayList<>(textLatencies),
+                new ArrayList<>(fileLatencies), new ArrayList<>(uploadDurations), uploadedBytes.get(),
+                inFlight.size(), errors.get());
+        } finally {
+            pool.shutdownNow();
+            for (SimulatedUser user : users) {
+                user.stop();
+            }
+        }
+    }
+
+    // A message sent before the receiver's subscription is live is never delivered, so every
+    // user keeps sending a warm-up to its peer until the peer has seen one
+    private void warmUp(List<SimulatedUser> users) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.warmUpTimeoutMillis);
+        while (warmedUp.size() < users.size()) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Only " + warmedUp.size() + " of " + users.size()
+                    + " realtime subscriptions came up");
+            }
+            for (SimulatedUser user : users) {
+                if (!warmedUp.contains(user.peer)) user.sendWarmUp();
+            }
+            Thread.sleep(500);
+        }
+    }
+
+    private void onDelivered(String username, Message message) {
+        // Senders also get their own messages back; only count the receiving side
+        if (!username.equals(message.getReceiver())) return;
+        if (WARM_UP.equals(message.getContent())) {
+            warmedUp.add(username);
+            return;
+        }
+        Pending pending = message.getClientId() != null ? inFlight.remove(message.getClientId()) : null;
+        if (pending == null) return;
+        long latency = System.nanoTime() - pending.startNanos;
+        (FILE.equals(pending.type) ? fileLatencies : textLatencies).add(latency);
+    }
+
+    private final class SimulatedUser {
+        final String name;
+        final String peer;
+        final SupabaseClient client;
+        final RealtimeMultiplexer realtime;
+        final Random random;
+
+        SimulatedUser(int index, SupabaseClient client) {
+            this.name = "load_user_" + index;
+            this.peer = "load_user_" + ((index + 1) % config.users);
+            this.client = client;
+            this.realtime = new RealtimeMultiplexer(client, name);
+            this.random = new Random(index);
+        }
+
+        void start() {
+            realtime.addGlobalListener(message -> onDelivered(name, message));
+            realtime.start();
+        }
+
+        void stop() {
+            realtime.stop();
+            SupabaseWrapper.disconnectRealtime(client);
+        }
+
+        void sendWarmUp() {
+            try {
+                SupabaseWrapper.insertMessages(client, Collections.singletonList(newMessage(WARM_UP, TEXT)));
+            } catch (Exception e) {
+                // Retried on the next round
+            }
+        }
+
+        void sendAll() throws InterruptedException {
+            // Files spread among the texts in a fixed order per user, so runs are comparable
+            List<String> actions = new ArrayList<>();
+            for (int i = 0; i < config.messagesPerUser; i++) actions.add(TEXT);
+            for (int i = 0; i < config.filesPerUser; i++) actions.add(FILE);
+            Collections.shuffle(actions, random);
+
+            for (int i = 0; i < actions.size(); i++) {
+                try {
+                    if (FILE.equals(actions.get(i))) {
+                        sendFile();
+                    } else {
+                        send(newMessage("Load test message " + i + " from " + name, TEXT), System.nanoTime());
+                    }
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                }
+                long interval = config.sendIntervalMillis;
+                if (interval > 0) Thread.sleep(interval + (long) (random.nextDouble() * interval));
+            }
+        }
+
+        // Same steps as UploadScheduler: content-addressed name, resumable upload, then the message
+        private void sendFile() throws Exception {
+            byte[] data = new byte[config.fileBytes];
+            random.nextBytes(data);
+            String path = UploadScheduler.CONTENT_PREFIX + sha256(data) + ".bin";
+
+            long start = System.nanoTime();
+            SupabaseWrapper.uploadFileStreaming(client, UploadScheduler.BUCKET, path, "load-test/" + path,
+                data.length, offset -> new ByteArrayInputStream(data, (int) offset, data.length - (int) offset), null);
+            uploadDurations.add(System.nanoTime() - start);
+            uploadedBytes.addAndGet(data.length);
+
+            String fileUrl = SupabaseWrapper.getPublicUrl(client, UploadScheduler.BUCKET, path);
+            send(newMessage(fileUrl, FILE), start);
+        }
+
+        private void send(Message message, long startNanos) {
+            inFlight.put(message.getClientId(), new Pending(message.getType(), startNanos));
+            try {
+                SupabaseWrapper.insertMessages(client, Collections.singletonList(message));
+            } catch (RuntimeException e) {
+                inFlight.remove(message.getClientId());
+                throw e;
+            }
+        }
+
+        private Message newMessage(String content, String type) {
+            return new Message(null, UUID.randomUUID().toString(), name, peer, content, type,
+                System.currentTimeMillis(), null, null);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static final class Pending {
+        final String type;
+        final long startNanos;
+
+        Pending(String type, long startNanos) {
+            this.type = type;
+            this.startNanos = startNanos;
+        }
+    }
+
+    static final class Report {
+        final Config config;
+        final long durationNanos;
+        final List<Long> textLatencies;
+        final List<Long> fileLatencies;
+        final List<Long> uploadDurations;
+        final long uploadedBytes;
+        // Sent successfully but never delivered before the drain timeout
+        final int lost;
+        final int errors;
+
+        Report(Config config, long durationNanos, List<Long> textLatencies, List<Long> fileLatencies,
+               List<Long> uploadDurations, long uploadedBytes, int lost, int errors) {
+            this.config = config;
+            this.durationNanos = durationNanos;
+            this.textLatencies = sorted(textLatencies);
+            this.fileLatencies = sorted(fileLatencies);
+            this.uploadDurations = sorted(uploadDurations);
+            this.uploadedBytes = uploadedBytes;
+            this.lost = lost;
+            this.errors = errors;
+        }
+
+        // Nearest-rank percentile of the text latencies, in ms
+        double textPercentileMillis(double fraction) {
+            return percentileMillis(textLatencies, fraction);
+        }
+
+        // Aggregate upload rate over the whole run, in MB/s
+        double uploadThroughputMbPerSecond() {
+            return uploadedBytes / (1024.0 * 1024.0) / (durationNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.US, "%d users, %d texts and %d files of %d KB each, in %.1fs%n",
+                config.users, config.messagesPerUser, config.filesPerUser, config.fileBytes / 1024,
+                durationNanos / 1e9));
+            appendLatencies(out, "text end-to-end", textLatencies);
+            appendLatencies(out, "file end-to-end", fileLatencies);
+            appendLatencies(out, "upload", uploadDurations);
+            long medianUpload = uploadDurations.isEmpty() ? 0 : uploadDurations.get(uploadDurations.size() / 2);
+            out.append(String.format(Locale.US,
+                "upload throughput: %.2f MB/s aggregate, %.2f MB/s per upload at the median%n",
+                uploadThroughputMbPerSecond(),
+                medianUpload > 0 ? config.fileBytes / (1024.0 * 1024.0) / (medianUpload / 1e9) : 0));
+            out.append(String.format(Locale.US, "lost %d, errors %d%n", lost, errors));
+            return out.toString();
+        }
+
+        private static void appendLatencies(StringBuilder out, String name, List<Long> sortedNanos) {
+            out.append(String.format(Locale.US, "%s ms: n %d, p50 %.1f, p99 %.1f, max %.1f%n",
+                name, sortedNanos.size(), percentileMillis(sortedNanos, 0.50), percentileMillis(sortedNanos, 0.99),
+                percentileMillis(sortedNanos, 1.0)));
+        }
+
+        private static double percentileMillis(List<Long> sortedNanos, double fraction) {
+            if (sortedNanos.isEmpty()) return 0;
+            int rank = (int) Math.ceil(fraction * sortedNanos.size());
+            return sortedNanos.get(Math.max(0, rank - 1)) / 1e6;
+        }
+
+        private static List<Long> sorted(List<Long> values) {
+            List<Long> copy = new ArrayList<>(values);
+            Collections.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.share_everything_project;
+
+import com.example.share_everything_project.standin.SupabaseStandIn;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end load test: starts the local Supabase stand-in and runs LoadGenerator against it,
+ * printing message latency and upload throughput, and fails if any message was lost or any
+ * call failed. Skipped in normal test runs:
+ *   ./gradlew :app:testDebugUnitTest --tests '*LoadTest' -PrunLoadTest=true -i
+ * Tune with -PloadTest.users, .messagesPerUser, .filesPerUser, .fileBytes, .sendIntervalMs and
+ * .latencyMs (simulated round trip added by the stand-in). -PloadTest.maxP99Ms fails the run
+ * when text p99 goes over it. -PloadTest.url and -PloadTest.key aim the same load at another
+ * project instead; never a production one.
+ */
+public class LoadTest {
+    @Test
+    public void concurrentUsersExchangeTextsAndFiles() throws Exception {
+        Assume.assumeTrue("Load test only runs with -PrunLoadTest=true", Boolean.getBoolean("runLoadTest"));
+
+        LoadGenerator.Config config = new LoadGenerator.Config();
+        config.users = Integer.getInteger("loadTest.users", config.users);
+        config.messagesPerUser = Integer.getInteger("loadTest.messagesPerUser", config.messagesPerUser);
+        config.filesPerUser = Integer.getInteger("loadTest.filesPerUser", config.filesPerUser);
+        config.fileBytes = Integer.getInteger("loadTest.fileBytes", config.fileBytes);
+        config.sendIntervalMillis = Long.getLong("loadTest.sendIntervalMs", config.sendIntervalMillis);
+
+        String url = System.getProperty("loadTest.url");
+        SupabaseStandIn standIn = null;
+        if (url == null) {
+            standIn = new SupabaseStandIn(0, "127.0.0.1", Long.getLong("loadTest.latencyMs", 0L)).start();
+            url = standIn.getUrl();
+        }
+        String key = System.getProperty("loadTest.key", SupabaseStandIn.ANON_KEY);
+
+        LoadGenerator.Report report;
+        try {
+            report = new LoadGenerator(config).run(url, key);
+        } finally {
+            if (standIn != null) standIn.stop();
+        }
+        System.out.println(report);
+        System.out.println(SupabaseMetrics.getInstance().dump());
+
+        assertEquals("Messages never delivered", 0, report.lost);
+        assertEquals("Failed sends or uploads", 0, report.errors);
+        Long maxP99 = Long.getLong("loadTest.maxP99Ms");
+        if (maxP99 != null) {
+            assertTrue("Text p99 " + report.textPercentileMillis(0.99) + "ms is over " + maxP99 + "ms",
+                report.textPercentileMillis(0.99) <= maxP99);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.share_everything_project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * MessageList keeps one copy of every message in timestamp/id order, swaps an optimistic message
+ * for its server echo in place, and reports each mutation to the listener as the exact range the
+ * adapter has to update.
+ */
+public class MessageListTest {
+    private final MessageList list = new MessageList();
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        list.setListener(new MessageList.Listener() {
+            @Override
+            public void onInserted(int position, int count) {
+                events.add("insert " + position + " " + count);
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                events.add("remove " + position + " " + count);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                events.add("change " + position);
+            }
+        });
+    }
+
+    @Test
+    public void duplicateIdIsDropped() {
+        assertTrue(list.add(server("1", 100, "hi")));
+        // Same server row delivered again by realtime and by a page fetch
+        assertFalse(list.add(server("1", 100, "hi")));
+        assertFalse(list.add(server("1", 250, "edited")));
+
+        assertEquals(1, list.size());
+        assertEquals("hi", list.get(0).getContent());
+        assertEquals(Arrays.asList("insert 0 1"), events);
+    }
+
+    @Test
+    public void optimisticMessageIsReplacedByItsEcho() {
+        list.add(server("1", 100, "first"));
+        Message pending = local("c1", 200, "hello", Message.SEND_STATE_PENDING);
+        assertTrue(list.add(pending));
+
+        // A failed send changes the row in place
+        Message failed = pending.withSendState(Message.SEND_STATE_FAILED);
+        assertFalse(list.add(failed));
+        assertSame(failed, list.get(1));
+
+        // The echo carries the same client id but a server id and timestamp of its own
+        Message echo = new Message("7", "c1", "alice", "bob", "hello", "text", 201, null, Message.SEND_STATE_SENT);
+        assertFalse(list.add(echo));
+
+        assertEquals(2, list.size());
+        assertSame(echo, list.get(1));
+        assertEquals(Arrays.asList("insert 0 1", "insert 1 1", "change 1", "change 1"), events);
+
+        // Once the server row is in, later copies of either form change nothing
+        events.clear();
+        assertFalse(list.add(echo));
+        assertFalse(list.add(pending));
+        assertTrue(list.contains(failed));
+        assertEquals(2, list.size());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void idLessMessagesAreMatchedByContent() {
+        Message message = new Message("alice", "bob", "hi", "text", 100);
+        assertTrue(list.add(message));
+        assertFalse(list.add(new Message("alice", "bob", "hi", "text", 100)));
+
+        // Any one of sender, timestamp or content differing makes it a new message
+        assertTrue(list.add(new Message("bob", "alice", "hi", "text", 100)));
+        assertTrue(list.add(new Message("alice", "bob", "hi", "text", 101)));
+        assertTrue(list.add(new Message("alice", "bob", "hi again", "text", 100)));
+
+        assertEquals(4, list.size());
+        assertSame(message, list.get(0));
+    }
+
+    @Test
+    public void outOfOrderMessageIsInsertedAtItsPosition() {
+        list.add(server("1", 100, "a"));
+        list.add(server("3", 300, "c"));
+        list.add(server("2", 200, "b"));
+        list.add(server("0", 50, "z"));
+
+        assertEquals(Arrays.asList("0", "1", "2", "3"), ids());
+        assertEquals(Arrays.asList("insert 0 1", "insert 1 1", "insert 1 1", "insert 0 1"), events);
+    }
+
+    @Test
+    public void equalTimestampsAreOrderedByNumericId() {
+        list.add(server("10", 100, "ten"));
+        list.add(server("9", 100, "nine"));
+        // A message not yet on the server sorts after server rows with the same timestamp
+        list.add(local("c1", 100, "local", Message.SEND_STATE_PENDING));
+        list.add(server("11", 100, "eleven"));
+
+        assertEquals(Arrays.asList("9", "10", "11", null), ids());
+        assertEquals(Arrays.asList("insert 0 1", "insert 0 1", "insert 2 1", "insert 2 1"), events);
+    }
+
+    @Test
+    public void newerPageIsOneRangeInsertAtTheEnd() {
+        list.add(server("1", 100, "a"));
+        events.clear();
+
+        assertEquals(3, list.addAll(Arrays.asList(
+            server("2", 200, "b"), server("3", 300, "c"), server("4", 400, "d"))));
+
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids());
+        assertEquals(Arrays.asList("insert 1 3"), events);
+    }
+
+    @Test
+    public void duplicateInNewerPageSplitsTheRange() {
+        list.add(server("1", 100, "a"));
+        events.clear();
+
+        assertEquals(3, list.addAll(Arrays.asList(
+            server("2", 200, "b"), server("2", 200, "b"), server("3", 300, "c"), server("4", 400, "d"))));
+
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids());
+        assertEquals(Arrays.asList("insert 1 1", "insert 2 2"), events);
+    }
+
+    @Test
+    public void olderPageIsOneRangeInsertAtTheStart() {
+        list.add(server("5", 500, "e"));
+        events.clear();
+
+        assertEquals(2, list.addAll(Arrays.asList(server("1", 100, "a"), server("2", 200, "b"))));
+
+        assertEquals(Arrays.asList("1", "2", "5"), ids());
+        assertEquals(Arrays.asList("insert 0 2"), events);
+    }
+
+    @Test
+    public void unorderedBatchIsInsertedOneByOne() {
+        list.add(server("1", 100, "a"));
+        list.add(server("4", 400, "d"));
+        events.clear();
+
+        assertEquals(2, list.addAll(Arrays.asList(server("3", 300, "c"), server("2", 200, "b"))));
+
+        assertEquals(Arrays.asList("1", "2", "3", "4"), ids());
+        assertEquals(Arrays.asList("insert 1 1", "insert 1 1"), events);
+    }
+
+    @Test
+    public void removalsReportTheirRanges() {
+        for (int i = 1; i <= 6; i++) {
+            list.add(server(String.valueOf(i), i * 100L, "m" + i));
+        }
+        events.clear();
+
+        list.removeFirst(2);
+        list.removeLast(1);
+        assertEquals(Arrays.asList("3", "4", "5"), ids());
+
+        // Removed messages can be added again, e.g. when scrolling back into a trimmed range
+        assertTrue(list.add(server("1", 100, "m1")));
+        list.removeLast(10);
+        list.removeFirst(1);
+        list.clear();
+
+        assertEquals(0, list.size());
+        assertEquals(Arrays.asList("remove 0 2", "remove 3 1", "insert 0 1", "remove 0 4"), events);
+    }
+
+    private static Message server(String id, long timestamp, String content) {
+        return new Message(id, "server-" + id, "alice", "bob", content, "text", timestamp, null, Message.SEND_STATE_SENT);
+    }
+
+    private static Message local(String clientId, long timestamp, String content, String sendState) {
+        return new Message(null, clientId, "alice", "bob", content, "text", timestamp, null, sendState);
+    }
+
+    private List<String> ids() {
+        List<String> ids = new ArrayList<>();
+        for (Message message : list.snapshot()) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.share_everything_project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import kotlinx.serialization.KSerializer;
+import kotlinx.serialization.builtins.BuiltinSerializersKt;
+import kotlinx.serialization.json.Json;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the pure-JVM part of the message pipeline: decoding a page of rows as
+ * Supabase returns it, converting rows to Messages, and feeding a shuffled realtime burst with
+ * duplicates through MessageList. Run and checked against baselines by BenchmarkRegressionTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessagePipelineBenchmarks {
+    // Same size as a full in-memory window
+    static final int ROWS = ChatViewModel.MAX_WINDOW_SIZE;
+    // Share of the realtime burst that repeats a message already delivered
+    private static final double DUPLICATE_RATE = 0.1;
+
+    private static final KSerializer<List<MessageData>> PAGE_SERIALIZER =
+        BuiltinSerializersKt.ListSerializer(MessageData.Companion.serializer());
+
+    private String pageJson;
+    private List<MessageData> page;
+    private List<Message> realtimeBurst;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < ROWS; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i + 1)
+                .append(",\"sender\":\"").append(i % 2 == 0 ? "alice" : "bob")
+                .append("\",\"receiver\":\"").append(i % 2 == 0 ? "bob" : "alice")
+                .append("\",\"content\":\"Message number ").append(i).append(" with some typical text\"")
+                .append(",\"type\":\"text\",\"timestamp\":").append(1_700_000_000_000L + i * 1000L)
+                .append(",\"created_at\":\"2024-01-01T00:00:00+00:00\"")
+                .append(",\"client_id\":\"client-").append(i).append("\",\"thumbnail_url\":null}");
+        }
+        pageJson = json.append(']').toString();
+        page = decodeMessageData();
+
+        List<Message> messages = convertToMessages();
+        realtimeBurst = new ArrayList<>(messages);
+        Random random = new Random(42);
+        for (int i = 0; i < ROWS * DUPLICATE_RATE; i++) {
+            realtimeBurst.add(messages.get(random.nextInt(messages.size())));
+        }
+        Collections.shuffle(realtimeBurst, random);
+    }
+
+    @Benchmark
+    public List<MessageData> decodeMessageData() {
+        return Json.Default.decodeFromString(PAGE_SERIALIZER, pageJson);
+    }
+
+    @Benchmark
+    public List<Message> convertToMessages() {
+        List<Message> result = new ArrayList<>(page.size());
+        for (MessageData row : page) {
+            result.add(row.toMessage());
+        }
+        return result;
+    }
+
+    // Out-of-order arrivals with echoes, as RealtimeMultiplexer delivers them to ChatViewModel
+    @Benchmark
+    public int dedupAndSortRealtime() {
+        MessageList list = new MessageList();
+        for (Message message : realtimeBurst) {
+            list.add(message);
+        }
+        return list.size();
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.share_everything_project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost per row of turning decoded MessageData into Messages, before and after SupabaseWrapper
+ * returned typed lists. jsonObjectRoundTripPerRow is the old path: each row re-encoded into a
+ * JSONObject and parsed back in ChatViewModel. typedMessagePerRow is MessageData.toMessage().
+ * Scores are per row; the allocation per row comes from the GC profiler, which
+ * BenchmarkRegressionTest runs them with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RowAllocationBenchmarks {
+    private static final int ROWS = MessagePipelineBenchmarks.ROWS;
+
+    private List<MessageData> page;
+
+    @Setup
+    public void setUp() {
+        MessagePipelineBenchmarks pipeline = new MessagePipelineBenchmarks();
+        pipeline.setUp();
+        page = pipeline.decodeMessageData();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Message> jsonObjectRoundTripPerRow() throws JSONException {
+        // What SupabaseWrapper used to return
+        JSONArray response = new JSONArray();
+        for (MessageData row : page) {
+            JSONObject json = new JSONObject();
+            json.put("id", row.id);
+            json.put("sender", row.sender);
+            json.put("receiver", row.receiver);
+            json.put("content", row.content);
+            json.put("type", row.type);
+            json.put("timestamp", row.timestamp);
+            json.put("created_at", row.createdAt);
+            response.put(json);
+        }
+
+        // And how ChatViewModel parsed it, minus the per-row logging removed separately
+        List<Message> result = new ArrayList<>(response.length());
+        for (int i = 0; i < response.length(); i++) {
+            JSONObject json = response.getJSONObject(i);
+            result.add(new Message(
+                json.optString("id"),
+                json.getString("sender"),
+                json.getString("receiver"),
+                json.getString("content"),
+                json.getString("type"),
+                json.getLong("timestamp"),
+                json.optString("created_at")
+            ));
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public List<Message> typedMessagePerRow() {
+        List<Message> result = new ArrayList<>(page.size());
+        for (MessageData row : page) {
+            result.add(row.toMessage());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.share_everything_project.macrobenchmark
+
+import android.content.Intent
+import android.net.Uri
+import androidx.benchmark.macro.MacrobenchmarkScope
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Until
+
+internal const val TARGET_PACKAGE = "com.example.share_everything_project"
+internal const val BENCHMARK_USER = "benchmark_user"
+internal const val TIMEOUT_MS = 5_000L
+
+// The fast startup path and the chat screen both need a saved user
+internal fun MacrobenchmarkScope.signInIfNeeded() {
+    startActivityAndWait()
+    val usernameField = device.findObject(By.res(TARGET_PACKAGE, "usernameEditText")) ?: return
+    usernameField.text = BENCHMARK_USER
+    device.findObject(By.res(TARGET_PACKAGE, "continueButton")).click()
+    device.wait(Until.hasObject(By.res(TARGET_PACKAGE, "conversationRecyclerView")), TIMEOUT_MS)
+}
+
+// Actions of the benchmark build's BenchmarkDataReceiver; `am broadcast` returns once the
+// receiver has finished, so the data is in place when this does
+internal const val SEED_MESSAGES = "$TARGET_PACKAGE.SEED_MESSAGES"
+internal const val PUSH_MESSAGES = "$TARGET_PACKAGE.PUSH_MESSAGES"
+internal const val SEED_CONVERSATIONS = "$TARGET_PACKAGE.SEED_CONVERSATIONS"
+
+internal fun MacrobenchmarkScope.broadcast(action: String, extras: String) {
+    device.executeShellCommand("am broadcast -n $TARGET_PACKAGE/.BenchmarkDataReceiver -a $action $extras")
+}
+
+// Adds the peer to the conversation list through the deep link; an existing one is a no-op
+internal fun MacrobenchmarkScope.showConversation(peer: String) {
+    startActivityAndWait(
+        Intent(Intent.ACTION_VIEW, Uri.parse("sharehubpro://user/$peer"))
+            .setPackage(TARGET_PACKAGE)
+            .putExtra("username", BENCHMARK_USER)
+    )
+    device.wait(Until.hasObject(By.text(peer)), TIMEOUT_MS)
+}
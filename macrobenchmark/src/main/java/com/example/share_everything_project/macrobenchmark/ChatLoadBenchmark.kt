@@ -0,0 +1,57 @@
+package com.example.share_everything_project.macrobenchmark
+
+import androidx.benchmark.macro.CompilationMode
+import androidx.benchmark.macro.ExperimentalMetricApi
+import androidx.benchmark.macro.TraceSectionMetric
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Until
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Time to load a conversation, from ChatViewModel.loadMessages to the server delta being
+ * applied (the "ChatLoad" trace section), with every log line written vs logging off.
+ * VERBOSE writes one line per row like the app did before AppLog; SUPPRESS is the cost of
+ * the level checks alone. The level is set through log.tag.ShareHub, which AppLog reads at
+ * startup, so the process is restarted for each iteration.
+ *
+ * Give BENCHMARK_PEER a long history first for meaningful numbers, then run with
+ * ./gradlew :macrobenchmark:connectedBenchmarkAndroidTest.
+ */
+@OptIn(ExperimentalMetricApi::class)
+@RunWith(AndroidJUnit4::class)
+class ChatLoadBenchmark {
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    @Test
+    fun chatLoadLoggingVerbose() = chatLoad("VERBOSE")
+
+    @Test
+    fun chatLoadLoggingOff() = chatLoad("SUPPRESS")
+
+    private fun chatLoad(logLevel: String) = benchmarkRule.measureRepeated(
+        packageName = TARGET_PACKAGE,
+        metrics = listOf(TraceSectionMetric("ChatLoad", TraceSectionMetric.Mode.First)),
+        compilationMode = CompilationMode.Partial(),
+        iterations = 10,
+        setupBlock = {
+            device.executeShellCommand("setprop log.tag.ShareHub $logLevel")
+            killProcess()
+            signInIfNeeded()
+            showConversation(BENCHMARK_PEER)
+        }
+    ) {
+        device.findObject(By.text(BENCHMARK_PEER)).click()
+        // The section ends after the first rows render, once the server delta has been applied
+        device.wait(Until.hasObject(By.res(TARGET_PACKAGE, "messageText")), TIMEOUT_MS)
+        device.waitForIdle()
+    }
+
+    private companion object {
+        const val BENCHMARK_PEER = "benchmark_peer"
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.share_everything_project.macrobenchmark
+
+import androidx.benchmark.macro.CompilationMode
+import androidx.benchmark.macro.FrameTimingMetric
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Direction
+import androidx.test.uiautomator.Until
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Frame times in a chat with a 10k-message history while a burst of 100 messages arrives,
+ * then while flinging back through the history. frameDurationCpuMs should stay under 16ms
+ * at P90 and frameOverrunMs below zero for 60fps. The history is seeded into the local cache
+ * and the burst replayed through the realtime listeners by the benchmark build's
+ * BenchmarkDataReceiver, so no server data is needed.
+ * Run with ./gradlew :macrobenchmark:connectedBenchmarkAndroidTest.
+ */
+@RunWith(AndroidJUnit4::class)
+class MessageBurstBenchmark {
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    private var burst = 0
+
+    @Test
+    fun burstIntoLongChat() = benchmarkRule.measureRepeated(
+        packageName = TARGET_PACKAGE,
+        metrics = listOf(FrameTimingMetric()),
+        compilationMode = CompilationMode.Partial(),
+        iterations = 5,
+        setupBlock = {
+            signInIfNeeded()
+            // Fixed ids, so seeding again each iteration replaces the same rows
+            broadcast(SEED_MESSAGES, "--es user $BENCHMARK_USER --es peer $BURST_PEER --ei count $HISTORY_SIZE")
+            showConversation(BURST_PEER)
+            device.findObject(By.text(BURST_PEER)).click()
+            device.wait(Until.hasObject(By.res(TARGET_PACKAGE, "messageText")), TIMEOUT_MS)
+            device.waitForIdle()
+        }
+    ) {
+        burst++
+        broadcast(PUSH_MESSAGES,
+            "--es user $BENCHMARK_USER --es peer $BURST_PEER --ei count $BURST_SIZE --es tag $burst")
+        // The list follows new messages while it is at the bottom, so the last one shows up
+        device.wait(Until.hasObject(By.text("Burst $burst message ${BURST_SIZE - 1}")), TIMEOUT_MS)
+
+        val list = device.findObject(By.res(TARGET_PACKAGE, "messagesRecyclerView"))
+        // Keeps the fling clear of the system gesture areas
+        list.setGestureMargin(device.displayWidth / 5)
+        repeat(3) { list.fling(Direction.UP) }
+        device.waitForIdle()
+    }
+
+    private companion object {
+        const val BURST_PEER = "benchmark_burst_peer"
+        const val HISTORY_SIZE = 10_000
+        const val BURST_SIZE = 100
+    }
+}
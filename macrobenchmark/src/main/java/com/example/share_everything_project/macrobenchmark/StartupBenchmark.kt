@@ -0,0 +1,45 @@
+package com.example.share_everything_project.macrobenchmark
+
+import androidx.benchmark.macro.CompilationMode
+import androidx.benchmark.macro.StartupMode
+import androidx.benchmark.macro.StartupTimingMetric
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.uiautomator.By
+import androidx.test.uiautomator.Until
+import org.junit.Rule
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Launch time to the first rendered conversation list. MainActivity calls reportFullyDrawn()
+ * once the saved conversations are on screen, which StartupTimingMetric reports as
+ * timeToFullDisplayMs. Run with ./gradlew :macrobenchmark:connectedBenchmarkAndroidTest.
+ */
+@RunWith(AndroidJUnit4::class)
+class StartupBenchmark {
+    @get:Rule
+    val benchmarkRule = MacrobenchmarkRule()
+
+    @Test
+    fun coldStartup() = startup(StartupMode.COLD)
+
+    @Test
+    fun warmStartup() = startup(StartupMode.WARM)
+
+    private fun startup(startupMode: StartupMode) = benchmarkRule.measureRepeated(
+        packageName = TARGET_PACKAGE,
+        metrics = listOf(StartupTimingMetric()),
+        compilationMode = CompilationMode.Partial(),
+        startupMode = startupMode,
+        iterations = 10,
+        setupBlock = {
+            // The fast path only applies once a user is saved, so sign in before measuring
+            signInIfNeeded()
+            pressHome()
+        }
+    ) {
+        startActivityAndWait()
+        device.wait(Until.hasObject(By.res(TARGET_PACKAGE, "conversationRecyclerView")), TIMEOUT_MS)
+    }
+}
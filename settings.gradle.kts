@@ -21,4 +21,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "share-everything-project"
 include(":app")
+include(":macrobenchmark")
+include(":supabase-standin")
  
\ No newline at end of file
@@ -0,0 +1,29 @@
+plugins {
+    alias(libs.plugins.kotlin.jvm)
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+kotlin {
+    compilerOptions {
+        jvmTarget.set(org.jetbrains.kotlin.gradle.dsl.JvmTarget.JVM_11)
+    }
+}
+
+// ./gradlew :supabase-standin:run --args="--port 54321 --latency-ms 40"
+application {
+    mainClass.set("com.example.share_everything_project.standin.MainKt")
+}
+
+dependencies {
+    implementation(libs.ktor.server.cio)
+    implementation(libs.ktor.server.websockets)
+    implementation(libs.ktor.server.auto.head.response)
+    implementation(libs.kotlinx.serialization.json)
+
+    testImplementation(libs.junit)
+}
@@ -0,0 +1,21 @@
+package com.example.share_everything_project.standin
+
+// Runs the stand-in until killed:
+//   ./gradlew :supabase-standin:run --args="--port 54321 --host 0.0.0.0 --latency-ms 40"
+fun main(args: Array<String>) {
+    val options = args.toList().chunked(2).associate { it[0].removePrefix("--") to it.getOrElse(1) { "" } }
+    val port = options["port"]?.toInt() ?: SupabaseStandIn.DEFAULT_PORT
+    val standIn = SupabaseStandIn(
+        port = port,
+        // All interfaces by default, so emulators and adb reverse can reach it
+        host = options["host"] ?: "0.0.0.0",
+        latencyMillis = options["latency-ms"]?.toLong() ?: 0
+    ).start()
+    Runtime.getRuntime().addShutdownHook(Thread { standIn.stop() })
+
+    println("Supabase stand-in listening on ${standIn.url}")
+    println("Point a debug build at it from an emulator with:")
+    println("  ./gradlew :app:installDebug -PsupabaseUrl=http://10.0.2.2:$port -PsupabaseKey=${SupabaseStandIn.ANON_KEY}")
+    println("or from a device after adb reverse tcp:$port tcp:$port, with http://localhost:$port")
+    Thread.currentThread().join()
+}
@@ -0,0 +1,165 @@
+package com.example.share_everything_project.standin
+
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonNull
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+
+internal fun interface RowFilter {
+    fun matches(row: JsonObject): Boolean
+}
+
+/**
+ * The part of PostgREST's query string syntax supabase-kt produces for the app: column filters
+ * (col=op.value), or=(...) and and=(...) groups nested to any depth, order, limit and offset.
+ * Filters the stand-in does not know are rejected rather than ignored, so a new query shape
+ * fails loudly instead of returning wrong rows.
+ */
+internal object PostgrestQuery {
+    // Query parameters that are not column filters
+    private val RESERVED = setOf("select", "order", "limit", "offset", "on_conflict", "columns")
+    private val GROUPS = listOf("not.or", "not.and", "or", "and")
+
+    fun filter(params: Map<String, List<String>>): RowFilter {
+        val filters = mutableListOf<RowFilter>()
+        for ((name, values) in params) {
+            if (name in RESERVED) continue
+            for (value in values) {
+                filters += if (name in GROUPS) {
+                    group(name, value.removeSurrounding("(", ")"))
+                } else {
+                    condition(name, value)
+                }
+            }
+        }
+        return RowFilter { row -> filters.all { it.matches(row) } }
+    }
+
+    fun order(params: Map<String, List<String>>): Comparator<JsonObject>? {
+        val terms = params["order"].orEmpty().flatMap { split(it) }
+        if (terms.isEmpty()) return null
+        return terms.map { term ->
+            val parts = term.split('.')
+            val column = parts[0]
+            val descending = "desc" in parts
+            // PostgREST's defaults: nulls last ascending, first descending
+            val nullsFirst = if ("nullsfirst" in parts) true else if ("nullslast" in parts) false else descending
+            Comparator<JsonObject> { a, b ->
+                val left = a[column].takeUnless { it is JsonNull }
+                val right = b[column].takeUnless { it is JsonNull }
+                when {
+                    left == null && right == null -> 0
+                    left == null -> if (nullsFirst) -1 else 1
+                    right == null -> if (nullsFirst) 1 else -1
+                    else -> compareValues(left, right).let { if (descending) -it else it }
+                }
+            }
+        }.reduce { first, next -> first.then(next) }
+    }
+
+    // A single column=op.value condition; also used for realtime subscription filters
+    fun condition(column: String, expression: String): RowFilter {
+        if (expression.startsWith("not.")) {
+            val inner = condition(column, expression.removePrefix("not."))
+            return RowFilter { !inner.matches(it) }
+        }
+        val dot = expression.indexOf('.')
+        if (dot <= 0) throw PostgrestException(400, "PGRST100", "Malformed filter $column=$expression")
+        val operator = expression.substring(0, dot)
+        val operand = unquote(expression.substring(dot + 1))
+
+        return when (operator) {
+            "eq" -> RowFilter { row -> compare(row[column], operand) == 0 }
+            "neq" -> RowFilter { row -> compare(row[column], operand).let { it != null && it != 0 } }
+            "gt" -> RowFilter { row -> compare(row[column], operand).let { it != null && it > 0 } }
+            "gte" -> RowFilter { row -> compare(row[column], operand).let { it != null && it >= 0 } }
+            "lt" -> RowFilter { row -> compare(row[column], operand).let { it != null && it < 0 } }
+            "lte" -> RowFilter { row -> compare(row[column], operand).let { it != null && it <= 0 } }
+            "is" -> when (operand) {
+                "null" -> RowFilter { row -> row[column].let { it == null || it is JsonNull } }
+                "true", "false" -> RowFilter { row -> (row[column] as? JsonPrimitive)?.content == operand }
+                else -> throw PostgrestException(400, "PGRST100", "Unsupported is value $operand")
+            }
+            "in" -> {
+                val values = split(operand.removeSurrounding("(", ")")).map(::unquote)
+                RowFilter { row -> values.any { compare(row[column], it) == 0 } }
+            }
+            else -> throw PostgrestException(400, "PGRST100", "Unsupported operator $operator")
+        }
+    }
+
+    private fun group(kind: String, inner: String): RowFilter {
+        val members = split(inner).map(::element)
+        val all = kind.endsWith("and")
+        val combined = if (all) {
+            RowFilter { row -> members.all { it.matches(row) } }
+        } else {
+            RowFilter { row -> members.any { it.matches(row) } }
+        }
+        return if (kind.startsWith("not.")) RowFilter { !combined.matches(it) } else combined
+    }
+
+    // One member of a group: a nested group, or column.op.value
+    private fun element(item: String): RowFilter {
+        for (kind in GROUPS) {
+            if (item.startsWith("$kind(") && item.endsWith(")")) {
+                return group(kind, item.substring(kind.length + 1, item.length - 1))
+            }
+        }
+        val dot = item.indexOf('.')
+        if (dot <= 0) throw PostgrestException(400, "PGRST100", "Malformed filter $item")
+        return condition(item.substring(0, dot), item.substring(dot + 1))
+    }
+
+    // Splits on commas outside parentheses and double quotes
+    private fun split(list: String): List<String> {
+        val items = mutableListOf<String>()
+        var depth = 0
+        var quoted = false
+        var start = 0
+        var i = 0
+        while (i < list.length) {
+            when (list[i]) {
+                '\\' -> if (quoted) i++
+                '"' -> quoted = !quoted
+                '(' -> if (!quoted) depth++
+                ')' -> if (!quoted) depth--
+                ',' -> if (!quoted && depth == 0) {
+                    items += list.substring(start, i)
+                    start = i + 1
+                }
+            }
+            i++
+        }
+        if (start < list.length) items += list.substring(start)
+        return items.map { it.trim() }.filter { it.isNotEmpty() }
+    }
+
+    private fun unquote(value: String): String {
+        if (value.length < 2 || !value.startsWith('"') || !value.endsWith('"')) return value
+        return value.substring(1, value.length - 1).replace("\\\"", "\"").replace("\\\\", "\\")
+    }
+
+    // Null when the column is missing or null, which no comparison matches, as in SQL
+    private fun compare(value: JsonElement?, operand: String): Int? {
+        val primitive = value as? JsonPrimitive ?: return null
+        if (primitive is JsonNull) return null
+        if (!primitive.isString) {
+            val number = primitive.content.toBigDecimalOrNull()
+            val other = operand.toBigDecimalOrNull()
+            if (number != null && other != null) return number.compareTo(other)
+        }
+        return primitive.content.compareTo(operand)
+    }
+
+    private fun compareValues(left: JsonElement, right: JsonElement): Int {
+        val a = (left as? JsonPrimitive) ?: return 0
+        val b = (right as? JsonPrimitive) ?: return 0
+        if (!a.isString && !b.isString) {
+            val x = a.content.toBigDecimalOrNull()
+            val y = b.content.toBigDecimalOrNull()
+            if (x != null && y != null) return x.compareTo(y)
+        }
+        return a.content.compareTo(b.content)
+    }
+}
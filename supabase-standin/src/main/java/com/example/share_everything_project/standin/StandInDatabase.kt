@@ -0,0 +1,205 @@
+package com.example.share_everything_project.standin
+
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonNull
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import kotlinx.serialization.json.put
+import java.time.Instant
+import java.util.concurrent.atomic.AtomicInteger
+
+// Sent back in PostgREST's error shape; code is the Postgres or PGRST error code
+internal class PostgrestException(val status: Int, val code: String, message: String) : Exception(message)
+
+// Prefer: resolution=... on an insert
+internal enum class Resolution { NONE, IGNORE_DUPLICATES, MERGE_DUPLICATES }
+
+internal class UpsertResult(
+    // Every row the request wrote, for Prefer: return=representation
+    val written: List<JsonObject>,
+    // The new rows only; these are what realtime reports as INSERTs
+    val inserted: List<JsonObject>
+)
+
+/**
+ * An in-memory table with the unique constraints and column defaults of its Postgres
+ * counterpart. Each call is atomic: a batch that violates a constraint writes nothing.
+ */
+internal class Table(
+    val name: String,
+    // Column lists with a unique constraint; the first is the primary key
+    private val uniqueKeys: List<List<String>>,
+    // Values for columns an insert leaves out, like the column defaults in the migrations
+    private val defaults: Map<String, () -> JsonElement>
+) {
+    private val rows = ArrayList<JsonObject>()
+    private val indexes = uniqueKeys.associateWith { HashMap<List<JsonElement>, Int>() }
+
+    @Synchronized
+    fun select(filter: RowFilter, order: Comparator<JsonObject>?, limit: Int?, offset: Int): List<JsonObject> {
+        var result: List<JsonObject> = rows.filter { filter.matches(it) }
+        if (order != null) result = result.sortedWith(order)
+        return result.drop(offset).let { if (limit != null) it.take(limit) else it }
+    }
+
+    @Synchronized
+    fun snapshot(): List<JsonObject> = ArrayList(rows)
+
+    @Synchronized
+    fun upsert(input: List<JsonObject>, onConflict: List<String>?, resolution: Resolution): UpsertResult {
+        // PostgREST resolves against the primary key when on_conflict is not given
+        val conflictKey = onConflict ?: uniqueKeys.first().takeIf { resolution != Resolution.NONE }
+        if (conflictKey != null && conflictKey !in uniqueKeys) {
+            throw PostgrestException(400, "42P10",
+                "there is no unique or exclusion constraint matching the ON CONFLICT specification")
+        }
+
+        // Decide every row before changing anything, so a failing batch writes nothing
+        val planned = ArrayList<Pair<Int?, JsonObject>>()
+        val pendingKeys = uniqueKeys.associateWith { HashSet<List<JsonElement>>() }
+        rows@ for (incoming in input) {
+            val existing = conflictKey?.let { key -> keyOf(incoming, key)?.let { indexes.getValue(key)[it] } }
+            if (existing != null) {
+                when (resolution) {
+                    Resolution.IGNORE_DUPLICATES -> continue@rows
+                    Resolution.MERGE_DUPLICATES -> {
+                        planned += existing to JsonObject(rows[existing] + incoming)
+                        continue@rows
+                    }
+                    Resolution.NONE -> throw duplicate(conflictKey)
+                }
+            }
+
+            val row = withDefaults(incoming)
+            for (key in uniqueKeys) {
+                val value = keyOf(row, key) ?: continue
+                if (value in indexes.getValue(key) || value in pendingKeys.getValue(key)) {
+                    if (key == conflictKey && resolution == Resolution.IGNORE_DUPLICATES) continue@rows
+                    throw duplicate(key)
+                }
+            }
+            for (key in uniqueKeys) {
+                keyOf(row, key)?.let { pendingKeys.getValue(key).add(it) }
+            }
+            planned += null to row
+        }
+
+        val written = ArrayList<JsonObject>(planned.size)
+        val inserted = ArrayList<JsonObject>()
+        for ((index, row) in planned) {
+            if (index == null) {
+                rows += row
+                addToIndexes(row, rows.size - 1)
+                inserted += row
+            } else {
+                removeFromIndexes(rows[index])
+                rows[index] = row
+                addToIndexes(row, index)
+            }
+            written += row
+        }
+        return UpsertResult(written, inserted)
+    }
+
+    // Explicit nulls get the default too, so a serializer that writes out null ids still works
+    private fun withDefaults(row: JsonObject): JsonObject {
+        val missing = defaults.filterKeys { row[it] == null || row[it] is JsonNull }
+        if (missing.isEmpty()) return row
+        return JsonObject(row + missing.mapValues { (_, value) -> value() })
+    }
+
+    // Null when any column is missing or null; nulls never conflict, as in Postgres
+    private fun keyOf(row: JsonObject, key: List<String>): List<JsonElement>? {
+        val values = key.map { row[it] ?: return null }
+        return if (values.any { it is JsonNull }) null else values
+    }
+
+    private fun addToIndexes(row: JsonObject, index: Int) {
+        for ((key, entries) in indexes) keyOf(row, key)?.let { entries[it] = index }
+    }
+
+    private fun removeFromIndexes(row: JsonObject) {
+        for ((key, entries) in indexes) keyOf(row, key)?.let { entries.remove(it) }
+    }
+
+    private fun duplicate(key: List<String>) = PostgrestException(409, "23505",
+        "duplicate key value violates unique constraint \"${name}_${key.joinToString("_")}_key\"")
+}
+
+// The tables and functions from supabase/migrations that the app uses
+internal class StandInDatabase {
+    private val messageIds = AtomicInteger()
+
+    val messages = Table(
+        "messages",
+        listOf(listOf("id"), listOf("client_id")),
+        mapOf(
+            "id" to { JsonPrimitive(messageIds.incrementAndGet()) },
+            "created_at" to { JsonPrimitive(Instant.now().toString()) },
+            "client_id" to { JsonNull },
+            "thumbnail_url" to { JsonNull }
+        )
+    )
+
+    private val conversationReads = Table(
+        "conversation_reads",
+        listOf(listOf("username", "peer")),
+        mapOf("last_read_timestamp" to { JsonPrimitive(0) })
+    )
+
+    private val tables = listOf(messages, conversationReads).associateBy { it.name }
+
+    fun table(name: String): Table =
+        tables[name] ?: throw PostgrestException(404, "42P01", "relation \"public.$name\" does not exist")
+
+    // Same rows as the conversation_summaries function in 002_conversation_summaries.sql
+    fun conversationSummaries(username: String): JsonArray {
+        val mine = messages.snapshot().filter { it.text("sender") == username || it.text("receiver") == username }
+        val lastRead = conversationReads.snapshot()
+            .filter { it.text("username") == username }
+            .associate { it.text("peer") to it.number("last_read_timestamp") }
+
+        val summaries = mine
+            .groupBy { if (it.text("sender") == username) it.text("receiver") else it.text("sender") }
+            .map { (peer, conversation) ->
+                val latest = conversation.maxWith(compareBy<JsonObject>({ it.number("timestamp") }, { it.number("id") }))
+                val readUpTo = lastRead[peer] ?: 0L
+                val unread = conversation.count {
+                    it.text("receiver") == username && it.text("sender") == peer && it.number("timestamp") > readUpTo
+                }
+                buildJsonObject {
+                    put("peer", peer)
+                    put("last_content", latest.text("content"))
+                    put("last_type", latest.text("type"))
+                    put("last_timestamp", latest.number("timestamp"))
+                    put("unread_count", unread)
+                }
+            }
+            .sortedByDescending { it.number("last_timestamp") }
+        return JsonArray(summaries)
+    }
+
+    // Same as the mark_conversation_read function in 004_mark_conversation_read.sql: keeps the
+    // greater of the stored and the new marker. Table calls lock the table, so holding its
+    // lock makes the read and the write one step
+    fun markConversationRead(username: String, peer: String, lastReadTimestamp: Long) {
+        synchronized(conversationReads) {
+            val stored = conversationReads.snapshot()
+                .firstOrNull { it.text("username") == username && it.text("peer") == peer }
+                ?.number("last_read_timestamp") ?: 0L
+            conversationReads.upsert(listOf(buildJsonObject {
+                put("username", username)
+                put("peer", peer)
+                put("last_read_timestamp", maxOf(stored, lastReadTimestamp))
+            }), listOf("username", "peer"), Resolution.MERGE_DUPLICATES)
+        }
+    }
+
+    private fun JsonObject.text(column: String): String = getValue(column).jsonPrimitive.content
+
+    private fun JsonObject.number(column: String): Long = getValue(column).jsonPrimitive.long
+}
@@ -0,0 +1,179 @@
+package com.example.share_everything_project.standin
+
+import io.ktor.server.websocket.DefaultWebSocketServerSession
+import io.ktor.websocket.Frame
+import io.ktor.websocket.readText
+import io.ktor.websocket.send
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonNull
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.contentOrNull
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.put
+import kotlinx.serialization.json.putJsonArray
+import kotlinx.serialization.json.putJsonObject
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArraySet
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * The Realtime server's Phoenix channel protocol as far as postgres_changes goes: heartbeats,
+ * joining a channel with postgres_changes configs, leaving it, and pushing an INSERT to every
+ * joined config whose table and filter match the new row. Broadcast and presence are not
+ * implemented; joins that ask for them are accepted and never receive anything.
+ */
+internal class StandInRealtime {
+    private class ChangeSubscription(
+        val id: Long,
+        val event: String,
+        val schema: String,
+        val table: String,
+        val filter: RowFilter?
+    )
+
+    private class Connection(val outgoing: Channel<String>) {
+        // Joined topics and the postgres_changes configs joined on each
+        val topics = ConcurrentHashMap<String, List<ChangeSubscription>>()
+    }
+
+    private val connections = CopyOnWriteArraySet<Connection>()
+    private val nextSubscriptionId = AtomicLong()
+
+    suspend fun serve(session: DefaultWebSocketServerSession) {
+        // Inserts push from request threads; one writer per socket keeps frames in order
+        val connection = Connection(Channel(Channel.UNLIMITED))
+        connections += connection
+        val writer = session.launch {
+            for (text in connection.outgoing) session.send(text)
+        }
+        try {
+            for (frame in session.incoming) {
+                if (frame is Frame.Text) handle(connection, frame.readText())
+            }
+        } finally {
+            connections -= connection
+            connection.outgoing.close()
+            writer.cancel()
+        }
+    }
+
+    fun notifyInserts(table: String, rows: List<JsonObject>) {
+        if (rows.isEmpty()) return
+        for (connection in connections) {
+            for ((topic, subscriptions) in connection.topics) {
+                for (row in rows) {
+                    val ids = subscriptions
+                        .filter { it.table == table && (it.event == "INSERT" || it.event == "*") }
+                        .filter { it.filter?.matches(row) ?: true }
+                        .map { it.id }
+                    // One push per row and channel, listing every matching config, as the server does
+                    if (ids.isNotEmpty()) {
+                        push(connection, topic, "postgres_changes", insertPayload(table, row, ids), null)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun handle(connection: Connection, text: String) {
+        val message = try {
+            Json.parseToJsonElement(text).jsonObject
+        } catch (e: Exception) {
+            System.err.println("Realtime: ignoring malformed message: ${e.message}")
+            return
+        }
+        val topic = message["topic"]?.jsonPrimitive?.contentOrNull ?: return
+        val event = message["event"]?.jsonPrimitive?.contentOrNull ?: return
+        val ref = message["ref"]?.jsonPrimitive?.contentOrNull
+        val payload = message["payload"] as? JsonObject ?: JsonObject(emptyMap())
+
+        when (event) {
+            "phx_join" -> join(connection, topic, payload, ref)
+            "phx_leave" -> {
+                connection.topics.remove(topic)
+                reply(connection, topic, ref, JsonObject(emptyMap()))
+                push(connection, topic, "phx_close", JsonObject(emptyMap()), ref)
+            }
+            // Heartbeats, access_token refreshes and anything else only need an ok
+            else -> if (ref != null) reply(connection, topic, ref, JsonObject(emptyMap()))
+        }
+    }
+
+    private fun join(connection: Connection, topic: String, payload: JsonObject, ref: String?) {
+        val configs = payload["config"]?.jsonObject?.get("postgres_changes")?.jsonArray.orEmpty()
+        val subscriptions = ArrayList<ChangeSubscription>()
+        val accepted = ArrayList<JsonElement>()
+        for (element in configs) {
+            val config = element.jsonObject
+            val filter = config["filter"]?.jsonPrimitive?.contentOrNull?.let { text ->
+                val equals = text.indexOf('=')
+                if (equals <= 0) null else PostgrestQuery.condition(text.substring(0, equals), text.substring(equals + 1))
+            }
+            val subscription = ChangeSubscription(
+                id = nextSubscriptionId.incrementAndGet(),
+                event = config["event"]?.jsonPrimitive?.contentOrNull ?: "*",
+                schema = config["schema"]?.jsonPrimitive?.contentOrNull ?: "public",
+                table = config["table"]?.jsonPrimitive?.contentOrNull ?: "*",
+                filter = filter
+            )
+            subscriptions += subscription
+            // The client matches these to its own configs to route pushes by id
+            accepted += JsonObject(config + ("id" to JsonPrimitive(subscription.id)))
+        }
+        connection.topics[topic] = subscriptions
+
+        reply(connection, topic, ref, buildJsonObject { put("postgres_changes", JsonArray(accepted)) })
+        push(connection, topic, "system", buildJsonObject {
+            put("channel", topic.removePrefix("realtime:"))
+            put("extension", "postgres_changes")
+            put("message", "Subscribed to PostgreSQL")
+            put("status", "ok")
+        }, null)
+    }
+
+    private fun insertPayload(table: String, row: JsonObject, ids: List<Long>) = buildJsonObject {
+        putJsonObject("data") {
+            putJsonArray("columns") {
+                for ((name, value) in row) {
+                    add(buildJsonObject {
+                        put("name", name)
+                        put("type", if (value is JsonPrimitive && !value.isString && value !is JsonNull) "int8" else "text")
+                    })
+                }
+            }
+            put("commit_timestamp", Instant.now().toString())
+            put("errors", JsonNull)
+            put("record", row)
+            put("schema", "public")
+            put("table", table)
+            put("type", "INSERT")
+        }
+        putJsonArray("ids") { ids.forEach { add(JsonPrimitive(it)) } }
+    }
+
+    private fun reply(connection: Connection, topic: String, ref: String?, response: JsonObject) {
+        push(connection, topic, "phx_reply", buildJsonObject {
+            put("response", response)
+            put("status", "ok")
+        }, ref)
+    }
+
+    private fun push(connection: Connection, topic: String, event: String, payload: JsonObject, ref: String?) {
+        val message = buildJsonObject {
+            put("topic", topic)
+            put("event", event)
+            put("payload", payload)
+            put("ref", ref)
+        }
+        connection.outgoing.trySend(message.toString())
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.share_everything_project.standin
+
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.file.Files
+import java.security.MessageDigest
+import java.time.Instant
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+// Contents live in a file, so objects of any size cost no heap; the file is never changed after
+// the object is stored, an upsert stores a new one
+internal class StoredObject(val file: File, val contentType: String) {
+    val id: String = UUID.randomUUID().toString()
+    val created: Instant = Instant.now()
+    val size: Long = file.length()
+    // Hex MD5 like the S3-backed hosted storage, quoted as an HTTP entity tag
+    val eTag: String = "\"" + md5(file) + "\""
+
+    private companion object {
+        fun md5(file: File): String {
+            val digest = MessageDigest.getInstance("MD5")
+            file.inputStream().use { input ->
+                val buffer = ByteArray(64 * 1024)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+    }
+}
+
+// A resumable (TUS) upload between its creation and its last PATCH; chunks go straight to file
+internal class PendingUpload(
+    val bucket: String,
+    val path: String,
+    val length: Long,
+    val contentType: String,
+    val upsert: Boolean,
+    val file: File
+) {
+    @Synchronized
+    fun offset(): Long = file.length()
+
+    // Appends a chunk sent at offset; returns the new offset, or null if offset is not where we are
+    @Synchronized
+    fun append(offset: Long, chunk: ByteArray): Long? {
+        if (offset != offset() || offset + chunk.size > length) return null
+        FileOutputStream(file, true).use { it.write(chunk) }
+        return offset()
+    }
+}
+
+// Objects and in-progress uploads for every bucket, all public, kept in files under directory
+internal class StandInStorage(private val directory: File) {
+    private val objects = ConcurrentHashMap<String, StoredObject>()
+    private val uploads = ConcurrentHashMap<String, PendingUpload>()
+
+    fun get(bucket: String, path: String): StoredObject? = objects["$bucket/$path"]
+
+    // False if the object exists and upsert is not set, which storage answers with a conflict
+    fun put(bucket: String, path: String, data: ByteArray, contentType: String, upsert: Boolean): Boolean {
+        val file = newFile()
+        file.writeBytes(data)
+        return store(bucket, path, file, contentType, upsert)
+    }
+
+    // Direct children of prefix whose name starts with search, sorted by name like the list endpoint
+    fun list(bucket: String, prefix: String, search: String, limit: Int, offset: Int): List<Pair<String, StoredObject>> {
+        val folder = "$bucket/" + if (prefix.isEmpty()) "" else prefix.trimEnd('/') + "/"
+        return objects.entries
+            .filter { (key, _) -> key.startsWith(folder) && '/' !in key.substring(folder.length) }
+            .map { (key, stored) -> key.substring(folder.length) to stored }
+            .filter { (name, _) -> name.startsWith(search, ignoreCase = true) }
+            .sortedBy { it.first }
+            .drop(offset)
+            .take(limit)
+    }
+
+    fun createUpload(bucket: String, path: String, length: Long, contentType: String, upsert: Boolean): String {
+        val id = UUID.randomUUID().toString()
+        uploads[id] = PendingUpload(bucket, path, length, contentType, upsert, newFile())
+        return id
+    }
+
+    fun upload(id: String): PendingUpload? = uploads[id]
+
+    // Stores a finished upload; false on a conflict, as for put
+    fun finishUpload(id: String): Boolean {
+        val upload = uploads.remove(id) ?: return false
+        return store(upload.bucket, upload.path, upload.file, upload.contentType, upload.upsert)
+    }
+
+    // Deletes every object and unfinished upload
+    fun clear() {
+        objects.clear()
+        uploads.clear()
+        directory.deleteRecursively()
+    }
+
+    private fun store(bucket: String, path: String, file: File, contentType: String, upsert: Boolean): Boolean {
+        val stored = StoredObject(file, contentType)
+        val replaced = if (upsert) {
+            objects.put("$bucket/$path", stored)
+        } else if (objects.putIfAbsent("$bucket/$path", stored) != null) {
+            file.delete()
+            return false
+        } else {
+            null
+        }
+        // On POSIX systems a download still streaming the old file keeps reading it after this
+        replaced?.file?.delete()
+        return true
+    }
+
+    private fun newFile(): File {
+        directory.mkdirs()
+        return Files.createTempFile(directory.toPath(), "object", null).toFile()
+    }
+}
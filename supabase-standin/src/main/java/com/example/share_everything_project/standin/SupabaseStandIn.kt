@@ -0,0 +1,420 @@
+package com.example.share_everything_project.standin
+
+import io.ktor.http.ContentType
+import io.ktor.http.HttpHeaders
+import io.ktor.http.HttpStatusCode
+import io.ktor.http.content.OutgoingContent
+import io.ktor.server.application.Application
+import io.ktor.server.application.ApplicationCall
+import io.ktor.server.application.ApplicationCallPipeline
+import io.ktor.server.application.call
+import io.ktor.server.application.install
+import io.ktor.server.cio.CIO
+import io.ktor.server.engine.ApplicationEngine
+import io.ktor.server.engine.embeddedServer
+import io.ktor.server.plugins.autohead.AutoHeadResponse
+import io.ktor.server.request.receive
+import io.ktor.server.request.receiveText
+import io.ktor.server.response.header
+import io.ktor.server.response.respond
+import io.ktor.server.response.respondText
+import io.ktor.server.routing.Route
+import io.ktor.server.routing.get
+import io.ktor.server.routing.patch
+import io.ktor.server.routing.post
+import io.ktor.server.routing.put
+import io.ktor.server.routing.routing
+import io.ktor.server.websocket.WebSockets
+import io.ktor.server.websocket.webSocket
+import io.ktor.util.cio.readChannel
+import io.ktor.utils.io.ByteReadChannel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonArray
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonNull
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.contentOrNull
+import kotlinx.serialization.json.intOrNull
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.longOrNull
+import kotlinx.serialization.json.put
+import kotlinx.serialization.json.putJsonObject
+import java.io.File
+import java.nio.file.Files
+import java.util.Base64
+
+/**
+ * A local stand-in for the Supabase project, serving exactly what the app uses over the same
+ * HTTP and WebSocket APIs, so the unmodified client can run against it:
+ *  - PostgREST: select, insert and upsert on messages and conversation_reads, and the
+ *    conversation_summaries and mark_conversation_read RPCs
+ *  - Storage: plain and resumable (TUS) uploads, listing, and public downloads with ETag and
+ *    Range support
+ *  - Realtime: postgres_changes INSERT subscriptions with column filters
+ * Tables live in memory and stored objects in a temporary directory, so large uploads cost no
+ * heap; all of it is gone after stop(). There is no auth or row level security, and
+ * any key is accepted. Used by the app's LoadTest, or run on its own with
+ * ./gradlew :supabase-standin:run and point a debug build at it (see gradle.properties).
+ */
+class SupabaseStandIn @JvmOverloads constructor(
+    // 0 picks a free port, see url
+    private val port: Int = DEFAULT_PORT,
+    private val host: String = "127.0.0.1",
+    // Added to every request, to approximate the round trip to a hosted project
+    private val latencyMillis: Long = 0
+) {
+    private val database = StandInDatabase()
+    private val storage = StandInStorage(Files.createTempDirectory("supabase-standin").toFile())
+    private val realtime = StandInRealtime()
+    private var engine: ApplicationEngine? = null
+    private var boundPort = 0
+
+    // Base URL to pass to createSupabaseClient; only valid once started
+    val url: String
+        @Synchronized get() {
+            check(engine != null) { "Stand-in is not running" }
+            val address = if (host == "0.0.0.0") "127.0.0.1" else host
+            return "http://$address:$boundPort"
+        }
+
+    @Synchronized
+    fun start(): SupabaseStandIn {
+        if (engine != null) return this
+        val started = embeddedServer(CIO, port = port, host = host) { module() }.start(wait = false)
+        boundPort = runBlocking { started.resolvedConnectors().first().port }
+        engine = started
+        return this
+    }
+
+    @Synchronized
+    fun stop() {
+        engine?.stop(STOP_GRACE_MILLIS, STOP_TIMEOUT_MILLIS)
+        engine = null
+        storage.clear()
+    }
+
+    private fun Application.module() {
+        install(WebSockets)
+        install(AutoHeadResponse)
+        if (latencyMillis > 0) {
+            intercept(ApplicationCallPipeline.Plugins) { delay(latencyMillis) }
+        }
+        routing {
+            postgrestRoutes()
+            storageRoutes()
+            webSocket("/realtime/v1/websocket") { realtime.serve(this) }
+        }
+    }
+
+    private fun Route.postgrestRoutes() {
+        get("/rest/v1/{table}") {
+            call.postgrest {
+                val table = database.table(call.parameters["table"]!!)
+                val params = call.queryParameters()
+                val rows = table.select(
+                    PostgrestQuery.filter(params),
+                    PostgrestQuery.order(params),
+                    params["limit"]?.firstOrNull()?.toIntOrNull(),
+                    params["offset"]?.firstOrNull()?.toIntOrNull() ?: 0
+                )
+                call.respondJson(JsonArray(rows))
+            }
+        }
+
+        post("/rest/v1/rpc/{function}") {
+            call.postgrest {
+                val body = call.receiveText()
+                val args = if (body.isBlank()) JsonObject(emptyMap()) else Json.parseToJsonElement(body).jsonObject
+                when (val function = call.parameters["function"]) {
+                    "conversation_summaries" -> {
+                        val username = args["p_username"]?.jsonPrimitive?.contentOrNull
+                            ?: throw PostgrestException(400, "PGRST202", "Missing argument p_username")
+                        call.respondJson(database.conversationSummaries(username))
+                    }
+                    "mark_conversation_read" -> {
+                        val username = args["p_username"]?.jsonPrimitive?.contentOrNull
+                            ?: throw PostgrestException(400, "PGRST202", "Missing argument p_username")
+                        val peer = args["p_peer"]?.jsonPrimitive?.contentOrNull
+                            ?: throw PostgrestException(400, "PGRST202", "Missing argument p_peer")
+                        val lastReadTimestamp = args["p_last_read_timestamp"]?.jsonPrimitive?.longOrNull
+                            ?: throw PostgrestException(400, "PGRST202", "Missing argument p_last_read_timestamp")
+                        database.markConversationRead(username, peer, lastReadTimestamp)
+                        // A void function answers with no body
+                        call.respond(HttpStatusCode.NoContent)
+                    }
+                    else -> throw PostgrestException(404, "PGRST202", "Could not find the function public.$function")
+                }
+            }
+        }
+
+        // Insert, and upsert when Prefer asks for a resolution
+        post("/rest/v1/{table}") {
+            call.postgrest {
+                val table = database.table(call.parameters["table"]!!)
+                val input = when (val body = Json.parseToJsonElement(call.receiveText())) {
+                    is JsonArray -> body.map { it.jsonObject }
+                    else -> listOf(body.jsonObject)
+                }
+                val prefer = call.request.headers.getAll("Prefer").orEmpty()
+                    .flatMap { it.split(',') }
+                    .map { it.trim() }
+                val resolution = when {
+                    "resolution=ignore-duplicates" in prefer -> Resolution.IGNORE_DUPLICATES
+                    "resolution=merge-duplicates" in prefer -> Resolution.MERGE_DUPLICATES
+                    else -> Resolution.NONE
+                }
+                val onConflict = call.request.queryParameters["on_conflict"]
+                    ?.split(',')
+                    ?.map { it.trim().removeSurrounding("\"") }
+
+                val result = table.upsert(input, onConflict, resolution)
+                realtime.notifyInserts(table.name, result.inserted)
+                if ("return=representation" in prefer) {
+                    call.respondJson(JsonArray(result.written), HttpStatusCode.Created)
+                } else {
+                    call.respond(HttpStatusCode.Created)
+                }
+            }
+        }
+    }
+
+    private fun Route.storageRoutes() {
+        post("/storage/v1/object/list/{bucket}") {
+            val bucket = call.parameters["bucket"]!!
+            val body = Json.parseToJsonElement(call.receiveText()).jsonObject
+            val items = storage.list(
+                bucket,
+                prefix = body["prefix"]?.jsonPrimitive?.contentOrNull ?: "",
+                search = body["search"]?.jsonPrimitive?.contentOrNull ?: "",
+                limit = body["limit"]?.jsonPrimitive?.intOrNull ?: 100,
+                offset = body["offset"]?.jsonPrimitive?.intOrNull ?: 0
+            )
+            call.respondJson(JsonArray(items.map { (name, stored) -> bucketItem(name, stored) }))
+        }
+
+        post("/storage/v1/object/{bucket}/{path...}") { uploadObject(call, update = false) }
+        put("/storage/v1/object/{bucket}/{path...}") { uploadObject(call, update = true) }
+
+        get("/storage/v1/object/public/{bucket}/{path...}") {
+            val stored = storage.get(call.parameters["bucket"]!!, call.objectPath())
+            if (stored == null) {
+                call.respondStorageError(HttpStatusCode.NotFound, "not_found", "Object not found")
+            } else {
+                call.respondObject(stored)
+            }
+        }
+
+        post("/storage/v1/upload/resumable") {
+            val length = call.request.headers["Upload-Length"]?.toLongOrNull()
+            val metadata = parseTusMetadata(call.request.headers["Upload-Metadata"])
+            val bucket = metadata["bucketName"]
+            val path = metadata["objectName"]
+            if (length == null || bucket == null || path == null) {
+                call.respondStorageError(HttpStatusCode.BadRequest, "invalid_request", "Missing upload length or object name")
+                return@post
+            }
+            val upsert = call.request.headers["x-upsert"] == "true"
+            if (!upsert && storage.get(bucket, path) != null) {
+                call.respondStorageError(HttpStatusCode.Conflict, "Duplicate", "The resource already exists")
+                return@post
+            }
+            val id = storage.createUpload(bucket, path, length, metadata["contentType"] ?: DEFAULT_CONTENT_TYPE, upsert)
+            if (length == 0L) storage.finishUpload(id)
+
+            call.response.header(HttpHeaders.Location,
+                "http://${call.request.headers[HttpHeaders.Host]}/storage/v1/upload/resumable/$id")
+            call.response.header(TUS_RESUMABLE, TUS_VERSION)
+            call.respond(HttpStatusCode.Created)
+        }
+
+        // The TUS offset query is a HEAD; AutoHeadResponse routes HEAD requests to the GET route
+        // and drops the body, so a head route here would never be reached
+        get("/storage/v1/upload/resumable/{id}") {
+            val upload = storage.upload(call.parameters["id"]!!)
+            if (upload == null) {
+                call.respond(HttpStatusCode.NotFound)
+                return@get
+            }
+            call.response.header("Upload-Offset", upload.offset().toString())
+            call.response.header("Upload-Length", upload.length.toString())
+            call.response.header(HttpHeaders.CacheControl, "no-store")
+            call.response.header(TUS_RESUMABLE, TUS_VERSION)
+            call.respond(HttpStatusCode.OK)
+        }
+
+        patch("/storage/v1/upload/resumable/{id}") {
+            val id = call.parameters["id"]!!
+            val upload = storage.upload(id)
+            val offset = call.request.headers["Upload-Offset"]?.toLongOrNull()
+            if (upload == null || offset == null) {
+                call.respond(if (upload == null) HttpStatusCode.NotFound else HttpStatusCode.BadRequest)
+                return@patch
+            }
+            val newOffset = upload.append(offset, call.receive<ByteArray>())
+            if (newOffset == null) {
+                // The client resyncs with a HEAD and sends from the offset we have
+                call.respond(HttpStatusCode.Conflict)
+                return@patch
+            }
+            if (newOffset == upload.length && !storage.finishUpload(id)) {
+                call.respondStorageError(HttpStatusCode.Conflict, "Duplicate", "The resource already exists")
+                return@patch
+            }
+            call.response.header("Upload-Offset", newOffset.toString())
+            call.response.header(TUS_RESUMABLE, TUS_VERSION)
+            call.respond(HttpStatusCode.NoContent)
+        }
+    }
+
+    private suspend fun uploadObject(call: ApplicationCall, update: Boolean) {
+        val bucket = call.parameters["bucket"]!!
+        val path = call.objectPath()
+        val upsert = update || call.request.headers["x-upsert"] == "true"
+        val contentType = call.request.headers[HttpHeaders.ContentType] ?: DEFAULT_CONTENT_TYPE
+        if (!storage.put(bucket, path, call.receive<ByteArray>(), contentType, upsert)) {
+            call.respondStorageError(HttpStatusCode.Conflict, "Duplicate", "The resource already exists")
+            return
+        }
+        call.respondJson(buildJsonObject {
+            put("Key", "$bucket/$path")
+            put("Id", storage.get(bucket, path)?.id)
+        })
+    }
+
+    // Full body, 206 for a Range whose If-Range still matches, 304 for a matching If-None-Match
+    private suspend fun ApplicationCall.respondObject(stored: StoredObject) {
+        response.header(HttpHeaders.ETag, stored.eTag)
+        response.header(HttpHeaders.AcceptRanges, "bytes")
+        response.header(HttpHeaders.CacheControl, "max-age=3600")
+        if (request.headers[HttpHeaders.IfNoneMatch] == stored.eTag) {
+            respond(HttpStatusCode.NotModified)
+            return
+        }
+
+        val contentType = try {
+            ContentType.parse(stored.contentType)
+        } catch (e: Exception) {
+            ContentType.Application.OctetStream
+        }
+        val ifRange = request.headers[HttpHeaders.IfRange]
+        val range = request.headers[HttpHeaders.Range]
+            ?.takeIf { ifRange == null || ifRange == stored.eTag }
+            ?.let { RANGE.matchEntire(it.trim()) }
+        if (range == null) {
+            respond(FileRangeContent(stored.file, 0, stored.size, contentType, HttpStatusCode.OK))
+            return
+        }
+
+        val size = stored.size
+        val start = range.groupValues[1].toLong()
+        if (start >= size) {
+            response.header(HttpHeaders.ContentRange, "bytes */$size")
+            respond(HttpStatusCode.RequestedRangeNotSatisfiable)
+            return
+        }
+        val end = minOf(range.groupValues[2].toLongOrNull() ?: (size - 1), size - 1)
+        response.header(HttpHeaders.ContentRange, "bytes $start-$end/$size")
+        respond(FileRangeContent(stored.file, start, end - start + 1, contentType, HttpStatusCode.PartialContent))
+    }
+
+    // Shape of a list entry; the client only reads the name, the rest is for completeness
+    private fun bucketItem(name: String, stored: StoredObject) = buildJsonObject {
+        put("name", name)
+        put("id", stored.id)
+        put("created_at", stored.created.toString())
+        put("updated_at", stored.created.toString())
+        put("last_accessed_at", stored.created.toString())
+        putJsonObject("metadata") {
+            put("eTag", stored.eTag)
+            put("size", stored.size)
+            put("mimetype", stored.contentType)
+            put("cacheControl", "max-age=3600")
+            put("lastModified", stored.created.toString())
+            put("contentLength", stored.size)
+            put("httpStatusCode", 200)
+        }
+    }
+
+    // "key base64value,key base64value" as sent in Upload-Metadata
+    private fun parseTusMetadata(header: String?): Map<String, String> {
+        if (header.isNullOrBlank()) return emptyMap()
+        return header.split(',').mapNotNull { pair ->
+            val parts = pair.trim().split(' ', limit = 2)
+            if (parts[0].isEmpty()) return@mapNotNull null
+            val value = parts.getOrNull(1)?.let { String(Base64.getDecoder().decode(it)) } ?: ""
+            parts[0] to value
+        }.toMap()
+    }
+
+    private fun ApplicationCall.objectPath(): String = parameters.getAll("path").orEmpty().joinToString("/")
+
+    private fun ApplicationCall.queryParameters(): Map<String, List<String>> =
+        request.queryParameters.entries().associate { it.key to it.value }
+
+    // Runs a PostgREST handler, answering bad input the way PostgREST does
+    private suspend inline fun ApplicationCall.postgrest(block: () -> Unit) {
+        try {
+            block()
+        } catch (e: PostgrestException) {
+            respondPostgrestError(e.status, e.code, e.message ?: "")
+        } catch (e: SerializationException) {
+            respondPostgrestError(400, "PGRST102", "Invalid body: ${e.message}")
+        } catch (e: IllegalArgumentException) {
+            respondPostgrestError(400, "PGRST102", "Invalid body: ${e.message}")
+        }
+    }
+
+    private suspend fun ApplicationCall.respondPostgrestError(status: Int, code: String, message: String) {
+        respondJson(buildJsonObject {
+            put("code", code)
+            put("details", JsonNull)
+            put("hint", JsonNull)
+            put("message", message)
+        }, HttpStatusCode.fromValue(status))
+    }
+
+    private suspend fun ApplicationCall.respondStorageError(status: HttpStatusCode, error: String, message: String) {
+        respondJson(buildJsonObject {
+            put("statusCode", status.value.toString())
+            put("error", error)
+            put("message", message)
+        }, status)
+    }
+
+    private suspend fun ApplicationCall.respondJson(body: JsonElement, status: HttpStatusCode = HttpStatusCode.OK) {
+        respondText(body.toString(), ContentType.Application.Json, status)
+    }
+
+    companion object {
+        // Same port as the Supabase CLI's local API
+        const val DEFAULT_PORT = 54321
+        // Any key works; this one just makes configuration obvious
+        const val ANON_KEY = "stand-in-anon-key"
+
+        private const val DEFAULT_CONTENT_TYPE = "application/octet-stream"
+        private const val TUS_RESUMABLE = "Tus-Resumable"
+        private const val TUS_VERSION = "1.0.0"
+        private const val STOP_GRACE_MILLIS = 100L
+        private const val STOP_TIMEOUT_MILLIS = 1000L
+        private val RANGE = Regex("bytes=(\\d+)-(\\d*)")
+    }
+}
+
+// length bytes of file from start, streamed from disk instead of read into memory
+private class FileRangeContent(
+    private val file: File,
+    private val start: Long,
+    private val length: Long,
+    override val contentType: ContentType,
+    override val status: HttpStatusCode
+) : OutgoingContent.ReadChannelContent() {
+    override val contentLength: Long get() = length
+
+    override fun readFrom(): ByteReadChannel =
+        if (length == 0L) ByteReadChannel.Empty else file.readChannel(start, start + length - 1)
+}
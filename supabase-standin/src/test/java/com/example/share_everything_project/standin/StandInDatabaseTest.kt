@@ -0,0 +1,128 @@
+package com.example.share_everything_project.standin
+
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.int
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import kotlinx.serialization.json.put
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * The queries SupabaseWrapper sends, in the form supabase-kt puts them on the wire, must
+ * select the same rows from the stand-in as from PostgREST.
+ */
+class StandInDatabaseTest {
+    private val database = StandInDatabase()
+
+    @Test
+    fun keysetPageReturnsOlderMessagesOfOneConversation() {
+        insert(message("alice", "bob", 100, "a"), message("bob", "alice", 200, "b"),
+            message("alice", "carol", 150, "c"), message("alice", "bob", 200, "d"), message("bob", "alice", 300, "e"))
+
+        // fetchMessagesPage(alice, bob, beforeTimestamp = 200, beforeId = 4, limit = 10)
+        val params = mapOf(
+            "select" to listOf("*"),
+            "and" to listOf("(or(and(sender.eq.alice,receiver.eq.bob),and(sender.eq.bob,receiver.eq.alice)),"
+                + "or(timestamp.lt.200,and(timestamp.eq.200,id.lt.4)))"),
+            "order" to listOf("timestamp.desc.nullslast,id.desc.nullslast"),
+            "limit" to listOf("10")
+        )
+        val rows = select(params)
+
+        assertEquals(listOf("b", "a"), rows.map { it.getValue("client_id").jsonPrimitive.content })
+    }
+
+    @Test
+    fun deltaResumesAfterTheCursorWithinATimestamp() {
+        insert(message("alice", "bob", 100, "a"), message("bob", "alice", 200, "b"),
+            message("alice", "bob", 200, "c"), message("alice", "carol", 250, "d"), message("bob", "alice", 300, "e"))
+
+        // fetchMessagesAfter(alice, bob, afterTimestamp = 200, afterId = 2, limit = 10)
+        val rows = select(mapOf(
+            "select" to listOf("*"),
+            "and" to listOf("(or(and(sender.eq.alice,receiver.eq.bob),and(sender.eq.bob,receiver.eq.alice)),"
+                + "or(timestamp.gt.200,and(timestamp.eq.200,id.gt.2)))"),
+            "order" to listOf("timestamp.asc.nullslast,id.asc.nullslast"),
+            "limit" to listOf("10")
+        ))
+
+        assertEquals(listOf("c", "e"), rows.map { it.getValue("client_id").jsonPrimitive.content })
+    }
+
+    @Test
+    fun replayedClientIdsAreIgnoredAndIdsAssignedInOrder() {
+        val first = database.messages.upsert(listOf(message("alice", "bob", 100, "a"), message("alice", "bob", 101, "b")),
+            listOf("client_id"), Resolution.IGNORE_DUPLICATES)
+        // The outbox resends a batch whose response was lost, plus one new message
+        val replay = database.messages.upsert(listOf(message("alice", "bob", 100, "a"), message("alice", "bob", 102, "c")),
+            listOf("client_id"), Resolution.IGNORE_DUPLICATES)
+
+        assertEquals(listOf(1, 2), first.inserted.map { it.getValue("id").jsonPrimitive.int })
+        assertEquals(listOf("c"), replay.inserted.map { it.getValue("client_id").jsonPrimitive.content })
+        assertEquals(3, database.messages.snapshot().size)
+    }
+
+    @Test(expected = PostgrestException::class)
+    fun duplicateClientIdWithoutResolutionFailsTheWholeBatch() {
+        insert(message("alice", "bob", 100, "a"))
+        try {
+            database.messages.upsert(listOf(message("alice", "bob", 101, "b"), message("alice", "bob", 102, "a")),
+                null, Resolution.NONE)
+        } finally {
+            assertEquals(1, database.messages.snapshot().size)
+        }
+    }
+
+    @Test
+    fun summariesCountMessagesAfterTheLastRead() {
+        insert(message("bob", "alice", 100, "a"), message("bob", "alice", 200, "b"),
+            message("carol", "alice", 150, "c"), message("alice", "bob", 250, "d"))
+        database.table("conversation_reads").upsert(listOf(buildJsonObject {
+            put("username", "alice")
+            put("peer", "bob")
+            put("last_read_timestamp", 100)
+        }), listOf("username", "peer"), Resolution.MERGE_DUPLICATES)
+
+        val summaries = database.conversationSummaries("alice").map { it.jsonObject }
+
+        assertEquals(listOf("bob", "carol"), summaries.map { it.getValue("peer").jsonPrimitive.content })
+        assertEquals(250L, summaries[0].getValue("last_timestamp").jsonPrimitive.long)
+        assertEquals(1L, summaries[0].getValue("unread_count").jsonPrimitive.long)
+        assertEquals(1L, summaries[1].getValue("unread_count").jsonPrimitive.long)
+    }
+
+    @Test
+    fun readMarkerNeverMovesBackwards() {
+        insert(message("bob", "alice", 100, "a"), message("bob", "alice", 200, "b"), message("bob", "alice", 300, "c"))
+
+        database.markConversationRead("alice", "bob", 200)
+        // A slower write from another device, sent before the one above
+        database.markConversationRead("alice", "bob", 100)
+
+        val summary = database.conversationSummaries("alice").single().jsonObject
+        assertEquals(1L, summary.getValue("unread_count").jsonPrimitive.long)
+    }
+
+    private fun insert(vararg rows: JsonObject) {
+        database.messages.upsert(rows.toList(), listOf("client_id"), Resolution.IGNORE_DUPLICATES)
+    }
+
+    private fun select(params: Map<String, List<String>>): List<JsonObject> = database.messages.select(
+        PostgrestQuery.filter(params),
+        PostgrestQuery.order(params),
+        params["limit"]?.first()?.toInt(),
+        0
+    )
+
+    private fun message(sender: String, receiver: String, timestamp: Long, clientId: String) = buildJsonObject {
+        put("sender", sender)
+        put("receiver", receiver)
+        put("content", "message $clientId")
+        put("type", "text")
+        put("timestamp", timestamp)
+        put("client_id", clientId)
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.share_everything_project.standin
+
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.long
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.Base64
+
+/**
+ * The requests SupabaseWrapper makes, as supabase-kt sends them over HTTP, get the answers the
+ * hosted project would give: replayed inserts are ignored, the read marker RPC answers with no
+ * body, and a resumable upload can be resumed and read back in ranges.
+ */
+class SupabaseStandInTest {
+    private val standIn = SupabaseStandIn(0).start()
+    private val http = HttpClient.newHttpClient()
+
+    @After
+    fun tearDown() {
+        standIn.stop()
+    }
+
+    @Test
+    fun replayedInsertIsIgnoredAndReadMarkerClearsUnread() {
+        val rows = """[{"sender":"bob","receiver":"alice","content":"hi","type":"text","timestamp":100,"client_id":"a"},""" +
+            """{"sender":"bob","receiver":"alice","content":"again","type":"text","timestamp":200,"client_id":"b"}]"""
+        // insertMessages after a lost response sends the same batch again
+        repeat(2) {
+            val insert = send(post("/rest/v1/messages?on_conflict=client_id", rows)
+                .header("Prefer", "return=minimal,resolution=ignore-duplicates"))
+            assertEquals(201, insert.statusCode())
+        }
+        val selected = send(get("/rest/v1/messages?select=*&receiver=eq.alice&order=timestamp.asc.nullslast"))
+        assertEquals(2, Json.parseToJsonElement(selected.body()).jsonArray.size)
+
+        val read = send(post("/rest/v1/rpc/mark_conversation_read",
+            """{"p_username":"alice","p_peer":"bob","p_last_read_timestamp":200}"""))
+        assertEquals(204, read.statusCode())
+
+        val summaries = send(post("/rest/v1/rpc/conversation_summaries", """{"p_username":"alice"}"""))
+        val summary = Json.parseToJsonElement(summaries.body()).jsonArray.single().jsonObject
+        assertEquals(200L, summary.getValue("last_timestamp").jsonPrimitive.long)
+        assertEquals(0L, summary.getValue("unread_count").jsonPrimitive.long)
+    }
+
+    @Test
+    fun resumableUploadResumesAndIsServedInRanges() {
+        val data = ByteArray(1000) { it.toByte() }
+        val create = send(HttpRequest.newBuilder(uri("/storage/v1/upload/resumable"))
+            .header("Tus-Resumable", "1.0.0")
+            .header("Upload-Length", data.size.toString())
+            .header("Upload-Metadata", "bucketName ${base64("chat-files")},objectName ${base64("a/b.bin")}")
+            .POST(HttpRequest.BodyPublishers.noBody()))
+        assertEquals(201, create.statusCode())
+        val location = create.headers().firstValue("Location").get()
+
+        assertEquals(204, send(patch(location, 0, data.copyOfRange(0, 400))).statusCode())
+        // A retried chunk the server already has is refused, and HEAD says where to go on from
+        assertEquals(409, send(patch(location, 0, data.copyOfRange(0, 400))).statusCode())
+        val offset = send(HttpRequest.newBuilder(URI(location))
+            .header("Tus-Resumable", "1.0.0")
+            .method("HEAD", HttpRequest.BodyPublishers.noBody()))
+        assertEquals("400", offset.headers().firstValue("Upload-Offset").get())
+        assertEquals(204, send(patch(location, 400, data.copyOfRange(400, 1000))).statusCode())
+
+        val range = sendBytes(get("/storage/v1/object/public/chat-files/a/b.bin").header("Range", "bytes=500-509"))
+        assertEquals(206, range.statusCode())
+        assertArrayEquals(data.copyOfRange(500, 510), range.body())
+
+        val full = sendBytes(get("/storage/v1/object/public/chat-files/a/b.bin"))
+        assertArrayEquals(data, full.body())
+        val eTag = full.headers().firstValue("ETag").get()
+        val cached = sendBytes(get("/storage/v1/object/public/chat-files/a/b.bin").header("If-None-Match", eTag))
+        assertEquals(304, cached.statusCode())
+    }
+
+    private fun uri(path: String) = URI(standIn.url + path)
+
+    private fun get(path: String) = HttpRequest.newBuilder(uri(path)).GET()
+
+    private fun post(path: String, json: String) = HttpRequest.newBuilder(uri(path))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(json))
+
+    private fun patch(location: String, offset: Long, chunk: ByteArray) = HttpRequest.newBuilder(URI(location))
+        .header("Tus-Resumable", "1.0.0")
+        .header("Upload-Offset", offset.toString())
+        .header("Content-Type", "application/offset+octet-stream")
+        .method("PATCH", HttpRequest.BodyPublishers.ofByteArray(chunk))
+
+    private fun send(request: HttpRequest.Builder): HttpResponse<String> =
+        http.send(request.build(), HttpResponse.BodyHandlers.ofString())
+
+    private fun sendBytes(request: HttpRequest.Builder): HttpResponse<ByteArray> =
+        http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+
+    private fun base64(value: String) = Base64.getEncoder().encodeToString(value.toByteArray())
+}
@@ -0,0 +1,4 @@
+-- Client-generated idempotency key for messages sent through the outbox.
+-- Replayed inserts with an existing client_id are ignored by the app's upsert.
+alter table public.messages add column if not exists client_id text;
+create unique index if not exists messages_client_id_key on public.messages (client_id);
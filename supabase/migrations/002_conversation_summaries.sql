@@ -0,0 +1,49 @@
+-- How far each user has read each conversation, as a message timestamp.
+create table if not exists public.conversation_reads (
+    username text not null,
+    peer text not null,
+    last_read_timestamp bigint not null default 0,
+    primary key (username, peer)
+);
+
+create index if not exists messages_sender_timestamp_idx on public.messages (sender, timestamp desc);
+create index if not exists messages_receiver_sender_timestamp_idx on public.messages (receiver, sender, timestamp desc);
+
+-- One row per peer the user has exchanged messages with, newest conversation first.
+create or replace function public.conversation_summaries(p_username text)
+returns table (
+    peer text,
+    last_content text,
+    last_type text,
+    last_timestamp bigint,
+    unread_count bigint
+)
+language sql
+stable
+as $$
+    with latest as (
+        select distinct on (peer)
+            case when m.sender = p_username then m.receiver else m.sender end as peer,
+            m.content,
+            m.type,
+            m.timestamp
+        from public.messages m
+        where m.sender = p_username or m.receiver = p_username
+        order by peer, m.timestamp desc, m.id desc
+    )
+    select
+        l.peer,
+        l.content,
+        l.type,
+        l.timestamp,
+        (
+            select count(*)
+            from public.messages u
+            where u.receiver = p_username
+              and u.sender = l.peer
+              and u.timestamp > coalesce(r.last_read_timestamp, 0)
+        )
+    from latest l
+    left join public.conversation_reads r on r.username = p_username and r.peer = l.peer
+    order by l.timestamp desc;
+$$;
@@ -0,0 +1,3 @@
+-- Public URL of the preview uploaded next to image and video files.
+-- Null for text messages and for files without a thumbnail.
+alter table public.messages add column if not exists thumbnail_url text;
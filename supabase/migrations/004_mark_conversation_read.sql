@@ -0,0 +1,16 @@
+-- Moves a conversation's read marker forward and never back, so a late or out-of-order write,
+-- e.g. from a second device, cannot mark read messages unread again.
+create or replace function public.mark_conversation_read(
+    p_username text,
+    p_peer text,
+    p_last_read_timestamp bigint
+)
+returns void
+language sql
+as $$
+    insert into public.conversation_reads (username, peer, last_read_timestamp)
+    values (p_username, p_peer, p_last_read_timestamp)
+    on conflict (username, peer) do update
+        set last_read_timestamp = greatest(public.conversation_reads.last_read_timestamp,
+                                           excluded.last_read_timestamp);
+$$;